@@ -0,0 +1,329 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.graphics;
+
+import android.graphics.Bitmap;
+import java.lang.ref.SoftReference;
+import java.util.EventListener;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * バイト数の上限を持つ LRU の Bitmap キャッシュ<br>
+ * 上限を超えると最も長く参照されていない Bitmap から追い出す。<br>
+ * ソフト参照の2次キャッシュを有効にすると、追い出された Bitmap を GC されるまで再利用できる。<br>
+ * キャッシュした Bitmap は共有されるので、取得した側で recycle してはいけない。
+ */
+public class BitmapCache {
+
+    /**
+     * キャッシュのキー
+     */
+    public static final class Key {
+
+        private final Object mSource;
+        private final int mWidth;
+        private final int mHeight;
+        private final Bitmap.Config mConfig;
+
+        /**
+         * @param source ファイルパス、リソースID、Uri など
+         * @param width 0 の場合は元のサイズ
+         * @param height 0 の場合は元のサイズ
+         * @param config
+         */
+        public Key(Object source, int width, int height, Bitmap.Config config) {
+            if(source == null){
+                throw new NullPointerException("source == null");
+            }
+            mSource = source;
+            mWidth = width;
+            mHeight = height;
+            mConfig = config;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(this == o){
+                return true;
+            }
+            if(!(o instanceof Key)){
+                return false;
+            }
+            Key key = (Key)o;
+            return mWidth == key.mWidth && mHeight == key.mHeight && mConfig == key.mConfig && mSource.equals(key.mSource);
+        }
+
+        @Override
+        public int hashCode(){
+            int result = mSource.hashCode();
+            result = 31 * result + mWidth;
+            result = 31 * result + mHeight;
+            result = 31 * result + (mConfig == null ? 0 : mConfig.hashCode());
+            return result;
+        }
+
+        @Override
+        public String toString(){
+            return mSource + "[" + mWidth + "x" + mHeight + ", " + mConfig + "]";
+        }
+    }
+
+    /**
+     * キャッシュから追い出されたときに呼ばれるリスナー
+     */
+    public interface OnEvictedListener extends EventListener {
+
+        /**
+         * @param key
+         * @param bitmap
+         * @return recycle した、またはプールに戻した場合は true (2次キャッシュには入れない)
+         */
+        public boolean onEvicted(Key key, Bitmap bitmap);
+    }
+
+    private final LinkedHashMap<Key, Bitmap> mMap = new LinkedHashMap<Key, Bitmap>(0, 0.75f, true);
+    private final Map<Key, SoftReference<Bitmap>> mSoftMap;
+    private final long mMaxBytes;
+    private long mBytes;
+    private OnEvictedListener mListener;
+
+    private int mHitCount;
+    private int mSoftHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /**
+     * @param maxBytes キャッシュする Bitmap の合計バイト数の上限
+     */
+    public BitmapCache(long maxBytes) {
+        this(maxBytes, false);
+    }
+
+    /**
+     * @param maxBytes キャッシュする Bitmap の合計バイト数の上限
+     * @param useSoftCache 追い出した Bitmap をソフト参照で保持する場合は true
+     */
+    public BitmapCache(long maxBytes, boolean useSoftCache) {
+        if(maxBytes <= 0){
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        mMaxBytes = maxBytes;
+        mSoftMap = useSoftCache ? new HashMap<Key, SoftReference<Bitmap>>() : null;
+    }
+
+    /**
+     * 最大ヒープの割合から上限を決めてキャッシュを生成する
+     *
+     * @param percent 0 より大きく 1 以下
+     * @param useSoftCache
+     * @return cache
+     */
+    public static BitmapCache create(float percent, boolean useSoftCache){
+        if(percent <= 0 || percent > 1){
+            throw new IllegalArgumentException("percent must be in (0, 1]: " + percent);
+        }
+        return new BitmapCache((long)(Runtime.getRuntime().maxMemory() * percent), useSoftCache);
+    }
+
+    /**
+     * Bitmap のバイト数を計算する
+     *
+     * @param bitmap
+     * @return getRowBytes() * getHeight()
+     */
+    public static int sizeOf(Bitmap bitmap){
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    public synchronized void setOnEvictedListener(OnEvictedListener listener){
+        mListener = listener;
+    }
+
+    /**
+     * Bitmap を取得する
+     *
+     * @param key
+     * @return キャッシュに無い場合は null
+     */
+    public synchronized Bitmap get(Key key){
+        Bitmap bitmap = mMap.get(key);
+        if(bitmap != null){
+            if(!bitmap.isRecycled()){
+                mHitCount++;
+                return bitmap;
+            }
+            // 外部で recycle された
+            mMap.remove(key);
+            mBytes -= BitmapCache.sizeOf(bitmap);
+        }
+        if(mSoftMap != null){
+            SoftReference<Bitmap> reference = mSoftMap.remove(key);
+            bitmap = reference == null ? null : reference.get();
+            if(bitmap != null && !bitmap.isRecycled()){
+                mSoftHitCount++;
+                putInternal(key, bitmap);
+                return bitmap;
+            }
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Bitmap をキャッシュする
+     *
+     * @param key
+     * @param bitmap
+     */
+    public synchronized void put(Key key, Bitmap bitmap){
+        if(key == null || bitmap == null || bitmap.isRecycled()){
+            return;
+        }
+        if(mSoftMap != null){
+            mSoftMap.remove(key);
+        }
+        putInternal(key, bitmap);
+    }
+
+    private void putInternal(Key key, Bitmap bitmap){
+        Bitmap previous = mMap.put(key, bitmap);
+        mBytes += BitmapCache.sizeOf(bitmap);
+        if(previous != null){
+            mBytes -= BitmapCache.sizeOf(previous);
+            if(previous != bitmap){
+                onEvicted(key, previous);
+            }
+        }
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Bitmap をキャッシュから削除する<br>
+     * 削除した Bitmap はリスナーに渡さない。
+     *
+     * @param key
+     * @return 削除した Bitmap
+     */
+    public synchronized Bitmap remove(Key key){
+        if(mSoftMap != null){
+            mSoftMap.remove(key);
+        }
+        Bitmap bitmap = mMap.remove(key);
+        if(bitmap != null){
+            mBytes -= BitmapCache.sizeOf(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Bitmap をキャッシュが保持しているか調べる<br>
+     * 保持している Bitmap は他で表示されているかもしれないので、recycle やプールに戻してはいけない。
+     *
+     * @param bitmap
+     * @return ソフト参照で保持している場合も true
+     */
+    public synchronized boolean containsBitmap(Bitmap bitmap){
+        if(bitmap == null){
+            return false;
+        }
+        if(mMap.containsValue(bitmap)){
+            return true;
+        }
+        if(mSoftMap != null){
+            for(SoftReference<Bitmap> reference : mSoftMap.values()){
+                if(reference.get() == bitmap){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 合計バイト数が maxBytes 以下になるまで追い出す
+     *
+     * @param maxBytes
+     */
+    public synchronized void trimToSize(long maxBytes){
+        Iterator<Map.Entry<Key, Bitmap>> iterator = mMap.entrySet().iterator();
+        while(mBytes > maxBytes && iterator.hasNext()){
+            Map.Entry<Key, Bitmap> eldest = iterator.next();
+            iterator.remove();
+            mBytes -= BitmapCache.sizeOf(eldest.getValue());
+            mEvictionCount++;
+            onEvicted(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    /**
+     * 全て追い出す
+     */
+    public synchronized void evictAll(){
+        trimToSize(-1);
+        if(mSoftMap != null){
+            mSoftMap.clear();
+        }
+    }
+
+    private void onEvicted(Key key, Bitmap bitmap){
+        if(bitmap.isRecycled()){
+            return;
+        }
+        if(mListener != null && mListener.onEvicted(key, bitmap)){
+            return;
+        }
+        if(mSoftMap != null){
+            mSoftMap.put(key, new SoftReference<Bitmap>(bitmap));
+        }
+    }
+
+    /**
+     * キャッシュしている Bitmap の合計バイト数
+     */
+    public synchronized long size(){
+        return mBytes;
+    }
+
+    public long maxSize(){
+        return mMaxBytes;
+    }
+
+    public synchronized int hitCount(){
+        return mHitCount;
+    }
+
+    public synchronized int softHitCount(){
+        return mSoftHitCount;
+    }
+
+    public synchronized int missCount(){
+        return mMissCount;
+    }
+
+    public synchronized int evictionCount(){
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return BitmapCache.class.getSimpleName() + "[size=" + mBytes + ", maxSize=" + mMaxBytes + ", hit=" + mHitCount + ", softHit=" + mSoftHitCount + ", miss=" + mMissCount
+            + ", eviction=" + mEvictionCount + "]";
+    }
+
+}
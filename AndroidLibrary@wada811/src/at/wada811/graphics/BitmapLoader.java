@@ -0,0 +1,364 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.graphics;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import at.wada811.utils.BitmapUtils;
+import at.wada811.utils.LogUtils;
+import at.wada811.utils.ThreadUtils;
+import java.util.ArrayList;
+import java.util.EventListener;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bitmap を非同期でデコードするローダー<br>
+ * 同じソースとサイズのデコード中のリクエストは1回のデコードにまとめる。<br>
+ * 結果はメインスレッドで {@link OnBitmapLoadedListener} に通知する。キャッシュにあった場合も、通知は必ず load が Request を返した後になる。<br>
+ * デコード待ちは新しいものから処理し、上限を超えたら古いものから捨てる (捨てた要求には null を通知する)。
+ *
+ * <pre>
+ * BitmapLoader.Request request = loader.loadFile(path, width, height, listener);
+ * // 画面外にスクロールしたら
+ * request.cancel();
+ * </pre>
+ */
+public class BitmapLoader {
+
+    /**
+     * デコードが終わったときにメインスレッドで呼ばれるリスナー
+     */
+    public interface OnBitmapLoadedListener extends EventListener {
+
+        /**
+         * @param request
+         * @param bitmap デコードに失敗した場合は null
+         */
+        public void onBitmapLoaded(Request request, Bitmap bitmap);
+    }
+
+    /**
+     * 1回の読み込み要求<br>
+     * 同じデコードを待つ他の要求に影響せずにキャンセルできる。
+     */
+    public final class Request {
+
+        private final Job mJob;
+        private final OnBitmapLoadedListener mListener;
+        private volatile boolean mIsCancelled;
+
+        private Request(Job job, OnBitmapLoadedListener listener) {
+            mJob = job;
+            mListener = listener;
+        }
+
+        /**
+         * 要求をキャンセルする<br>
+         * 他に待っている要求が無ければデコードも中止する。
+         */
+        public void cancel(){
+            if(mIsCancelled){
+                return;
+            }
+            mIsCancelled = true;
+            BitmapLoader.this.cancel(this);
+        }
+
+        public boolean isCancelled(){
+            return mIsCancelled;
+        }
+
+        public boolean isDone(){
+            return mJob.isDone();
+        }
+
+        public BitmapCache.Key getKey(){
+            return mJob.mKey;
+        }
+
+        /**
+         * デコードの完了を待って結果を返す<br>
+         * メインスレッドから呼んではいけない。
+         *
+         * @return bitmap
+         * @throws InterruptedException
+         * @throws CancellationException キャンセルされたか、待ち行列から捨てられた場合
+         */
+        public Bitmap get() throws InterruptedException{
+            if(mIsCancelled){
+                throw new CancellationException();
+            }
+            try{
+                return mJob.get();
+            }catch(ExecutionException e){
+                LogUtils.e(e);
+                return null;
+            }
+        }
+    }
+
+    private final class Job extends FutureTask<Bitmap> {
+
+        private final BitmapCache.Key mKey;
+        private final List<Request> mRequests = new ArrayList<Request>();
+        /** 待ち行列から溢れて捨てられた */
+        private volatile boolean mIsDropped;
+
+        private Job(BitmapCache.Key key, Callable<Bitmap> callable) {
+            super(callable);
+            mKey = key;
+        }
+
+        private void setResult(Bitmap bitmap){
+            set(bitmap);
+        }
+
+        @Override
+        protected void done(){
+            List<Request> requests;
+            synchronized(mJobs){
+                if(mJobs.get(mKey) == this){
+                    mJobs.remove(mKey);
+                }
+                requests = new ArrayList<Request>(mRequests);
+                mRequests.clear();
+            }
+            if(isCancelled() && !mIsDropped){
+                return;
+            }
+            Bitmap bitmap = null;
+            try{
+                bitmap = mIsDropped ? null : get();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+            }catch(ExecutionException e){
+                LogUtils.e(e.getCause());
+            }
+            for(Request request : requests){
+                deliver(request, bitmap);
+            }
+        }
+    }
+
+    /**
+     * 最後に入れたものから取り出す待ち行列<br>
+     * スクロール中は画面に入ったばかりの要求を先にデコードする。
+     */
+    private static final class LifoBlockingDeque extends LinkedBlockingDeque<Runnable> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean offer(Runnable runnable){
+            return offerFirst(runnable);
+        }
+    }
+
+    /** デコード待ちの最大数のデフォルト */
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 32;
+
+    private final Context mContext;
+    private final ThreadPoolExecutor mExecutor;
+    private final LifoBlockingDeque mQueue = new LifoBlockingDeque();
+    private final int mMaxQueueSize;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<BitmapCache.Key, Job> mJobs = new HashMap<BitmapCache.Key, Job>();
+
+    /**
+     * CPU のコア数と同じスレッド数でデコードするローダーを生成する
+     *
+     * @param context
+     */
+    public BitmapLoader(Context context) {
+        this(context, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param context
+     * @param threadCount 同時にデコードする最大数
+     */
+    public BitmapLoader(Context context, int threadCount) {
+        this(context, threadCount, DEFAULT_MAX_QUEUE_SIZE);
+    }
+
+    /**
+     * @param context
+     * @param threadCount 同時にデコードする最大数
+     * @param maxQueueSize デコード待ちの最大数 (超えたら古いものから捨てる)
+     */
+    public BitmapLoader(Context context, int threadCount, int maxQueueSize) {
+        if(threadCount < 1){
+            throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+        }
+        if(maxQueueSize < 1){
+            throw new IllegalArgumentException("maxQueueSize must be positive: " + maxQueueSize);
+        }
+        mContext = context.getApplicationContext();
+        mMaxQueueSize = maxQueueSize;
+        mExecutor = new ThreadPoolExecutor(threadCount, threadCount, 1, TimeUnit.SECONDS, mQueue, ThreadUtils.newBackgroundThreadFactory(BitmapLoader.class.getSimpleName()));
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * ファイルを非同期で読み込む
+     *
+     * @param filePath
+     * @param width
+     * @param height
+     * @param listener
+     * @return request
+     * @see BitmapUtils#createBitmapFromFile(String, int, int)
+     */
+    public Request loadFile(final String filePath, final int width, final int height, OnBitmapLoadedListener listener){
+        return load(new BitmapCache.Key(filePath, width, height, Bitmap.Config.ARGB_8888), new Callable<Bitmap>(){
+            @Override
+            public Bitmap call() throws Exception{
+                return BitmapUtils.createBitmapFromFile(filePath, width, height);
+            }
+        }, listener);
+    }
+
+    /**
+     * Uri を非同期で読み込む
+     *
+     * @param uri
+     * @param width
+     * @param height
+     * @param listener
+     * @return request
+     * @see BitmapUtils#loadBitmap(Context, Uri, int, int)
+     */
+    public Request loadUri(final Uri uri, final int width, final int height, OnBitmapLoadedListener listener){
+        return load(new BitmapCache.Key(uri, width, height, Bitmap.Config.ARGB_8888), new Callable<Bitmap>(){
+            @Override
+            public Bitmap call() throws Exception{
+                return BitmapUtils.loadBitmap(mContext, uri, width, height);
+            }
+        }, listener);
+    }
+
+    private Request load(BitmapCache.Key key, Callable<Bitmap> callable, OnBitmapLoadedListener listener){
+        Job job;
+        Request request;
+        boolean isNewJob = false;
+        synchronized(mJobs){
+            job = mJobs.get(key);
+            if(job == null){
+                job = new Job(key, callable);
+                mJobs.put(key, job);
+                isNewJob = true;
+            }
+            request = new Request(job, listener);
+            job.mRequests.add(request);
+        }
+        BitmapCache cache = BitmapUtils.getBitmapCache();
+        Bitmap cached = cache == null ? null : cache.get(key);
+        if(cached != null && isNewJob){
+            // キャッシュにあればデコードしない
+            job.setResult(cached);
+            return request;
+        }
+        if(isNewJob){
+            mExecutor.execute(job);
+            // 溢れた分は一番古いデコード待ちから捨てる
+            while(mQueue.size() > mMaxQueueSize){
+                Runnable oldest = mQueue.pollLast();
+                if(oldest != null){
+                    drop((Job)oldest);
+                }
+            }
+        }
+        return request;
+    }
+
+    private void drop(Job job){
+        synchronized(mJobs){
+            if(mJobs.get(job.mKey) == job){
+                mJobs.remove(job.mKey);
+            }
+        }
+        job.mIsDropped = true;
+        job.cancel(false);
+    }
+
+    private void cancel(Request request){
+        Job job = request.mJob;
+        boolean cancelJob;
+        synchronized(mJobs){
+            job.mRequests.remove(request);
+            cancelJob = job.mRequests.isEmpty() && !job.isDone();
+            if(cancelJob && mJobs.get(job.mKey) == job){
+                mJobs.remove(job.mKey);
+            }
+        }
+        if(cancelJob){
+            job.cancel(false);
+            mExecutor.remove(job);
+        }
+    }
+
+    private void deliver(final Request request, final Bitmap bitmap){
+        if(request.mIsCancelled || request.mListener == null){
+            return;
+        }
+        // キャッシュにあった場合もメインスレッドから呼ばれた場合も load() が Request を返してから通知する
+        mHandler.post(new Runnable(){
+            @Override
+            public void run(){
+                if(!request.mIsCancelled){
+                    request.mListener.onBitmapLoaded(request, bitmap);
+                }
+            }
+        });
+    }
+
+    /**
+     * デコード待ちとデコード中の数
+     */
+    public int getPendingCount(){
+        synchronized(mJobs){
+            return mJobs.size();
+        }
+    }
+
+    /**
+     * 全ての要求をキャンセルしてスレッドを停止する
+     */
+    public void shutdown(){
+        List<Job> jobs;
+        synchronized(mJobs){
+            jobs = new ArrayList<Job>(mJobs.values());
+            mJobs.clear();
+        }
+        for(Job job : jobs){
+            job.cancel(false);
+        }
+        mExecutor.shutdownNow();
+    }
+
+}
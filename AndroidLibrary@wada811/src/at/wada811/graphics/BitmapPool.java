@@ -0,0 +1,278 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.graphics;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import at.wada811.utils.AndroidUtils;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * {@link BitmapFactory.Options#inBitmap} で再利用する Bitmap のプール<br>
+ * Bitmap.Config とバイト数ごとに保持し、合計バイト数が上限を超えると古いものから recycle する。<br>
+ * KitKat 未満では同じサイズの Bitmap で inSampleSize が 1 の場合しか再利用できない。
+ */
+public class BitmapPool {
+
+    /** 要求より大きい Bitmap を再利用するときの最大倍率 */
+    private static final int MAX_SIZE_MULTIPLE = 4;
+
+    private final Map<Bitmap.Config, TreeMap<Integer, ArrayDeque<Bitmap>>> mBuckets = new EnumMap<Bitmap.Config, TreeMap<Integer, ArrayDeque<Bitmap>>>(Bitmap.Config.class);
+    /** 追加した順 (古い順) */
+    private final LinkedHashSet<Bitmap> mBitmaps = new LinkedHashSet<Bitmap>();
+    private final long mMaxBytes;
+    private long mBytes;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * @param maxBytes プールする Bitmap の合計バイト数の上限
+     */
+    public BitmapPool(long maxBytes) {
+        if(maxBytes <= 0){
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * inBitmap が使える OS かどうか
+     */
+    public static boolean isSupported(){
+        return AndroidUtils.isMoreThanBuildVersion(Build.VERSION_CODES.HONEYCOMB);
+    }
+
+    /**
+     * Bitmap が確保しているバイト数を取得する
+     *
+     * @param bitmap
+     * @return byteCount
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public static int getByteCount(Bitmap bitmap){
+        if(AndroidUtils.isMoreThanBuildVersion(Build.VERSION_CODES.KITKAT)){
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * デコードに必要なバイト数を計算する
+     *
+     * @param width
+     * @param height
+     * @param config
+     * @return byteCount
+     */
+    public static int getByteCount(int width, int height, Bitmap.Config config){
+        return width * height * BitmapPool.getBytesPerPixel(config);
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config){
+        if(config == null){
+            return 4;
+        }
+        switch(config){
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            case ARGB_8888:
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Bitmap をプールに戻す<br>
+     * 再利用できない Bitmap やプールに入りきらない Bitmap は recycle する。<br>
+     * キャッシュなど他から参照されている Bitmap を渡してはいけない。
+     *
+     * @param bitmap
+     */
+    public synchronized void put(Bitmap bitmap){
+        if(bitmap == null || bitmap.isRecycled()){
+            return;
+        }
+        int byteCount = BitmapPool.getByteCount(bitmap);
+        if(!BitmapPool.isSupported() || !bitmap.isMutable() || bitmap.getConfig() == null || byteCount > mMaxBytes){
+            bitmap.recycle();
+            return;
+        }
+        if(!mBitmaps.add(bitmap)){
+            return;
+        }
+        TreeMap<Integer, ArrayDeque<Bitmap>> bucket = mBuckets.get(bitmap.getConfig());
+        if(bucket == null){
+            bucket = new TreeMap<Integer, ArrayDeque<Bitmap>>();
+            mBuckets.put(bitmap.getConfig(), bucket);
+        }
+        ArrayDeque<Bitmap> bitmaps = bucket.get(byteCount);
+        if(bitmaps == null){
+            bitmaps = new ArrayDeque<Bitmap>();
+            bucket.put(byteCount, bitmaps);
+        }
+        bitmaps.offerFirst(bitmap);
+        mBytes += byteCount;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * 指定したサイズのデコードに再利用できる Bitmap を取得する
+     *
+     * @param width デコード後の幅
+     * @param height デコード後の高さ
+     * @param config
+     * @param inSampleSize
+     * @return 無い場合は null
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config, int inSampleSize){
+        Bitmap bitmap = null;
+        TreeMap<Integer, ArrayDeque<Bitmap>> bucket = mBuckets.get(config == null ? Bitmap.Config.ARGB_8888 : config);
+        if(bucket != null && width > 0 && height > 0){
+            int byteCount = BitmapPool.getByteCount(width, height, config);
+            if(AndroidUtils.isMoreThanBuildVersion(Build.VERSION_CODES.KITKAT)){
+                Map.Entry<Integer, ArrayDeque<Bitmap>> entry = bucket.ceilingEntry(byteCount);
+                if(entry != null && entry.getKey() <= byteCount * MAX_SIZE_MULTIPLE){
+                    bitmap = entry.getValue().pollFirst();
+                }
+            }else if(inSampleSize <= 1){
+                ArrayDeque<Bitmap> bitmaps = bucket.get(byteCount);
+                if(bitmaps != null){
+                    for(Iterator<Bitmap> iterator = bitmaps.iterator(); iterator.hasNext();){
+                        Bitmap candidate = iterator.next();
+                        if(candidate.getWidth() == width && candidate.getHeight() == height){
+                            iterator.remove();
+                            bitmap = candidate;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        if(bitmap == null){
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        onRemoved(bitmap);
+        return bitmap;
+    }
+
+    /**
+     * BitmapFactory.Options に再利用する Bitmap を設定する<br>
+     * inJustDecodeBounds で outWidth, outHeight と inSampleSize を設定してから呼ぶ。
+     *
+     * @param options
+     * @return 再利用する Bitmap を設定した場合は true
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public boolean applyInBitmap(BitmapFactory.Options options){
+        if(!BitmapPool.isSupported()){
+            return false;
+        }
+        options.inMutable = true;
+        int inSampleSize = Math.max(options.inSampleSize, 1);
+        int width = (options.outWidth + inSampleSize - 1) / inSampleSize;
+        int height = (options.outHeight + inSampleSize - 1) / inSampleSize;
+        if(options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0 && options.inDensity != options.inTargetDensity){
+            if(AndroidUtils.isLessThanBuildVersion(Build.VERSION_CODES.KITKAT)){
+                // KitKat 未満は縮小しながらのデコードに再利用できない
+                return false;
+            }
+            float scale = (float)options.inTargetDensity / options.inDensity;
+            width = (int)(width * scale + 0.5f);
+            height = (int)(height * scale + 0.5f);
+        }
+        Bitmap inBitmap = get(width, height, options.inPreferredConfig, inSampleSize);
+        if(inBitmap != null){
+            options.inBitmap = inBitmap;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 合計バイト数が maxBytes 以下になるまで古いものから recycle する
+     *
+     * @param maxBytes
+     */
+    public synchronized void trimToSize(long maxBytes){
+        Iterator<Bitmap> iterator = mBitmaps.iterator();
+        while(mBytes > maxBytes && iterator.hasNext()){
+            Bitmap eldest = iterator.next();
+            iterator.remove();
+            int byteCount = BitmapPool.getByteCount(eldest);
+            TreeMap<Integer, ArrayDeque<Bitmap>> bucket = mBuckets.get(eldest.getConfig());
+            ArrayDeque<Bitmap> bitmaps = bucket.get(byteCount);
+            bitmaps.remove(eldest);
+            if(bitmaps.isEmpty()){
+                bucket.remove(byteCount);
+            }
+            mBytes -= byteCount;
+            eldest.recycle();
+        }
+    }
+
+    /**
+     * 全て recycle する
+     */
+    public synchronized void clear(){
+        trimToSize(-1);
+    }
+
+    private void onRemoved(Bitmap bitmap){
+        mBitmaps.remove(bitmap);
+        int byteCount = BitmapPool.getByteCount(bitmap);
+        TreeMap<Integer, ArrayDeque<Bitmap>> bucket = mBuckets.get(bitmap.getConfig());
+        ArrayDeque<Bitmap> bitmaps = bucket.get(byteCount);
+        if(bitmaps != null && bitmaps.isEmpty()){
+            bucket.remove(byteCount);
+        }
+        mBytes -= byteCount;
+    }
+
+    public synchronized long size(){
+        return mBytes;
+    }
+
+    public long maxSize(){
+        return mMaxBytes;
+    }
+
+    public synchronized int hitCount(){
+        return mHitCount;
+    }
+
+    public synchronized int missCount(){
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return BitmapPool.class.getSimpleName() + "[size=" + mBytes + ", maxSize=" + mMaxBytes + ", hit=" + mHitCount + ", miss=" + mMissCount + "]";
+    }
+
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.graphics;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.RectF;
+import android.os.Build;
+import at.wada811.utils.AndroidUtils;
+
+/**
+ * 回転、リサイズ、切り抜き、反転をまとめて1回の描画で行う変換<br>
+ * 操作は呼び出した順に、直前の操作の結果の画像に対して適用する。<br>
+ * 途中の Bitmap を生成しないので、何回操作しても生成する Bitmap は1つだけになる。
+ *
+ * <pre>
+ * Bitmap bitmap = new BitmapTransform(src.getWidth(), src.getHeight())
+ *     .rotate(orientation)
+ *     .resize(width, height)
+ *     .crop(x, y, w, h)
+ *     .apply(src);
+ * </pre>
+ */
+public class BitmapTransform {
+
+    private final Matrix mMatrix = new Matrix();
+    /** 変換後の画像の範囲 */
+    private final RectF mBounds;
+    private boolean mFilter = false;
+
+    /**
+     * @param srcWidth 変換する画像の幅
+     * @param srcHeight 変換する画像の高さ
+     */
+    public BitmapTransform(int srcWidth, int srcHeight) {
+        mBounds = new RectF(0, 0, srcWidth, srcHeight);
+    }
+
+    /**
+     * 時計回りに回転する
+     *
+     * @param degrees
+     * @return this
+     */
+    public BitmapTransform rotate(float degrees){
+        if(degrees % 360 == 0){
+            return this;
+        }
+        mMatrix.postRotate(degrees);
+        normalize();
+        mFilter = true;
+        return this;
+    }
+
+    /**
+     * 指定したサイズに拡大縮小する
+     *
+     * @param width
+     * @param height
+     * @return this
+     */
+    public BitmapTransform resize(int width, int height){
+        if(width == getWidth() && height == getHeight()){
+            return this;
+        }
+        mMatrix.postScale(width / mBounds.width(), height / mBounds.height());
+        normalize();
+        mFilter = true;
+        return this;
+    }
+
+    /**
+     * 指定した倍率で拡大縮小する
+     *
+     * @param scale
+     * @return this
+     */
+    public BitmapTransform scale(float scale){
+        if(scale == 1){
+            return this;
+        }
+        mMatrix.postScale(scale, scale);
+        normalize();
+        mFilter = true;
+        return this;
+    }
+
+    /**
+     * 指定した座標とサイズで切り抜く
+     *
+     * @param x 開始x座標
+     * @param y 開始y座標
+     * @param w 切り抜く幅
+     * @param h 切り抜く高さ
+     * @return this
+     */
+    public BitmapTransform crop(int x, int y, int w, int h){
+        if(x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > getWidth() || y + h > getHeight()){
+            throw new IllegalArgumentException("crop area is out of bounds: " + x + ", " + y + ", " + w + ", " + h);
+        }
+        mMatrix.postTranslate(-x, -y);
+        mBounds.set(0, 0, w, h);
+        return this;
+    }
+
+    /**
+     * 左右反転する
+     *
+     * @return this
+     */
+    public BitmapTransform invertHorizontal(){
+        mMatrix.postScale(-1, 1);
+        normalize();
+        return this;
+    }
+
+    /**
+     * 上下反転する
+     *
+     * @return this
+     */
+    public BitmapTransform invertVertical(){
+        mMatrix.postScale(1, -1);
+        normalize();
+        return this;
+    }
+
+    /**
+     * 変換後の画像の左上が原点になるように平行移動する
+     */
+    private void normalize(){
+        mMatrix.mapRect(mBounds);
+        mMatrix.postTranslate(-mBounds.left, -mBounds.top);
+        mBounds.set(0, 0, mBounds.width(), mBounds.height());
+    }
+
+    /**
+     * 変換後の幅
+     */
+    public int getWidth(){
+        return Math.round(mBounds.width());
+    }
+
+    /**
+     * 変換後の高さ
+     */
+    public int getHeight(){
+        return Math.round(mBounds.height());
+    }
+
+    /**
+     * 元画像の座標から変換後の座標への変換行列
+     */
+    public Matrix getMatrix(){
+        return new Matrix(mMatrix);
+    }
+
+    /**
+     * 変換した Bitmap を生成する (元の画像は破棄しない)
+     *
+     * @param src
+     * @return 変換後の Bitmap
+     */
+    public Bitmap apply(Bitmap src){
+        return apply(src, Bitmap.createBitmap(getWidth(), getHeight(), getConfig(src)));
+    }
+
+    /**
+     * プールから取得した Bitmap に変換した画像を描画する (元の画像は破棄しない)
+     *
+     * @param src
+     * @param pool
+     * @return 変換後の Bitmap
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public Bitmap apply(Bitmap src, BitmapPool pool){
+        final int width = getWidth();
+        final int height = getHeight();
+        final Bitmap.Config config = getConfig(src);
+        Bitmap dest = pool.get(width, height, config, 1);
+        if(dest != null && (dest.getWidth() != width || dest.getHeight() != height || dest.getConfig() != config)){
+            if(AndroidUtils.isMoreThanBuildVersion(Build.VERSION_CODES.KITKAT)){
+                dest.reconfigure(width, height, config);
+            }else{
+                pool.put(dest);
+                dest = null;
+            }
+        }
+        if(dest == null){
+            return apply(src);
+        }
+        // 変換後の画像が覆わない端にプールに戻す前の画像が残らないように消す
+        dest.eraseColor(Color.TRANSPARENT);
+        return apply(src, dest);
+    }
+
+    /**
+     * 指定した Bitmap に変換した画像を描画する (元の画像は破棄しない)
+     *
+     * @param src
+     * @param dest 変換後のサイズの可変な Bitmap
+     * @return dest
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
+    public Bitmap apply(Bitmap src, Bitmap dest){
+        if(!dest.isMutable() || dest.getWidth() != getWidth() || dest.getHeight() != getHeight()){
+            throw new IllegalArgumentException("dest must be mutable and " + getWidth() + "x" + getHeight());
+        }
+        Canvas canvas = new Canvas(dest);
+        Paint paint = mFilter ? new Paint(Paint.FILTER_BITMAP_FLAG) : null;
+        if(src.hasAlpha() || !mMatrix.rectStaysRect()){
+            if(AndroidUtils.isMoreThanBuildVersion(Build.VERSION_CODES.HONEYCOMB_MR1)){
+                // プールから取り出した Bitmap は不透明になっていることがある (新しく生成した ARGB_8888 は元から透過を持つ)
+                dest.setHasAlpha(true);
+            }
+            canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+        }
+        canvas.drawBitmap(src, mMatrix, paint);
+        return dest;
+    }
+
+    private Bitmap.Config getConfig(Bitmap src){
+        Bitmap.Config config = src.getConfig();
+        if(config == null || !mMatrix.rectStaysRect()){
+            // 回転で透明な領域ができる場合
+            return Bitmap.Config.ARGB_8888;
+        }
+        return config;
+    }
+
+}
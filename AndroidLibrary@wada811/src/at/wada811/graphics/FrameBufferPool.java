@@ -0,0 +1,254 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.graphics;
+
+import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * カメラのプレビュー処理で使うバッファのプール<br>
+ * YUV の byte 配列、ARGB の int 配列、可変な Bitmap をプレビューサイズごとに使い回す。<br>
+ *
+ * <pre>
+ * FrameBufferPool pool = new FrameBufferPool();
+ * CameraUtils.addCallbackBuffers(camera, pool, 3);
+ * camera.setPreviewCallbackWithBuffer(callback);
+ * // onPreviewFrame(byte[] data, Camera camera)
+ * Bitmap bitmap = BitmapUtils.createBitmapFromYuv(data, ImageFormat.NV21, width, height, pool);
+ * camera.addCallbackBuffer(data);
+ * // bitmap を使い終わったら
+ * pool.recycleBitmap(bitmap);
+ * </pre>
+ */
+public class FrameBufferPool {
+
+    /** サイズごとに保持するデフォルトの最大数 */
+    public static final int DEFAULT_MAX_POOL_SIZE = 4;
+
+    private final int mMaxPoolSize;
+    private final Map<Integer, ArrayDeque<byte[]>> mYuvBuffers = new HashMap<Integer, ArrayDeque<byte[]>>();
+    private final Map<Integer, ArrayDeque<int[]>> mArgbBuffers = new HashMap<Integer, ArrayDeque<int[]>>();
+    private final Map<Long, ArrayDeque<Bitmap>> mBitmaps = new HashMap<Long, ArrayDeque<Bitmap>>();
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mInUseCount;
+
+    public FrameBufferPool() {
+        this(DEFAULT_MAX_POOL_SIZE);
+    }
+
+    /**
+     * @param maxPoolSize サイズごとに保持する最大数
+     */
+    public FrameBufferPool(int maxPoolSize) {
+        if(maxPoolSize < 1){
+            throw new IllegalArgumentException("maxPoolSize must be positive: " + maxPoolSize);
+        }
+        mMaxPoolSize = maxPoolSize;
+    }
+
+    /**
+     * YUV データのバイト数を計算する
+     *
+     * @param width
+     * @param height
+     * @param imageFormat ImageFormat.NV21 | ImageFormat.YUY2 など
+     * @return バイト数
+     */
+    public static int getYuvBufferSize(int width, int height, int imageFormat){
+        return width * height * ImageFormat.getBitsPerPixel(imageFormat) / 8;
+    }
+
+    /**
+     * YUV データ用のバッファを取得する
+     *
+     * @param width
+     * @param height
+     * @param imageFormat
+     * @return buffer
+     */
+    public synchronized byte[] obtainYuvBuffer(int width, int height, int imageFormat){
+        int size = FrameBufferPool.getYuvBufferSize(width, height, imageFormat);
+        byte[] buffer = poll(mYuvBuffers, size);
+        if(buffer == null){
+            buffer = new byte[size];
+        }
+        onObtain();
+        return buffer;
+    }
+
+    /**
+     * YUV データ用のバッファを返却する
+     *
+     * @param buffer
+     */
+    public synchronized void recycleYuvBuffer(byte[] buffer){
+        if(buffer == null){
+            return;
+        }
+        onRecycle();
+        offer(mYuvBuffers, buffer.length, buffer);
+    }
+
+    /**
+     * ARGB データ用のバッファを取得する
+     *
+     * @param width
+     * @param height
+     * @return buffer
+     */
+    public synchronized int[] obtainArgbBuffer(int width, int height){
+        int size = width * height;
+        int[] buffer = poll(mArgbBuffers, size);
+        if(buffer == null){
+            buffer = new int[size];
+        }
+        onObtain();
+        return buffer;
+    }
+
+    /**
+     * ARGB データ用のバッファを返却する
+     *
+     * @param buffer
+     */
+    public synchronized void recycleArgbBuffer(int[] buffer){
+        if(buffer == null){
+            return;
+        }
+        onRecycle();
+        offer(mArgbBuffers, buffer.length, buffer);
+    }
+
+    /**
+     * 可変な ARGB_8888 の Bitmap を取得する
+     *
+     * @param width
+     * @param height
+     * @return bitmap
+     */
+    public synchronized Bitmap obtainBitmap(int width, int height){
+        Bitmap bitmap = poll(mBitmaps, FrameBufferPool.getBitmapKey(width, height));
+        if(bitmap == null){
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        onObtain();
+        return bitmap;
+    }
+
+    /**
+     * Bitmap を返却する<br>
+     * プールが一杯の場合は recycle する。
+     *
+     * @param bitmap
+     */
+    public synchronized void recycleBitmap(Bitmap bitmap){
+        if(bitmap == null){
+            return;
+        }
+        onRecycle();
+        if(bitmap.isRecycled() || !bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888){
+            return;
+        }
+        if(!offer(mBitmaps, FrameBufferPool.getBitmapKey(bitmap.getWidth(), bitmap.getHeight()), bitmap)){
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * 保持しているバッファを全て破棄する<br>
+     * プレビューサイズを変更したときに呼ぶ。
+     */
+    public synchronized void clear(){
+        for(ArrayDeque<Bitmap> bitmaps : mBitmaps.values()){
+            for(Bitmap bitmap : bitmaps){
+                bitmap.recycle();
+            }
+        }
+        mBitmaps.clear();
+        mYuvBuffers.clear();
+        mArgbBuffers.clear();
+    }
+
+    /**
+     * プールから取得できた回数
+     */
+    public synchronized int getHitCount(){
+        return mHitCount;
+    }
+
+    /**
+     * プールが空で新たに確保した回数
+     */
+    public synchronized int getMissCount(){
+        return mMissCount;
+    }
+
+    /**
+     * 取得されて返却されていないバッファの数
+     */
+    public synchronized int getInUseCount(){
+        return mInUseCount;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return FrameBufferPool.class.getSimpleName() + "[hit=" + mHitCount + ", miss=" + mMissCount + ", inUse=" + mInUseCount + "]";
+    }
+
+    private void onObtain(){
+        mInUseCount++;
+    }
+
+    private void onRecycle(){
+        if(mInUseCount > 0){
+            mInUseCount--;
+        }
+    }
+
+    private <K, V> V poll(Map<K, ArrayDeque<V>> pool, K key){
+        ArrayDeque<V> queue = pool.get(key);
+        V value = queue == null ? null : queue.pollFirst();
+        if(value == null){
+            mMissCount++;
+        }else{
+            mHitCount++;
+        }
+        return value;
+    }
+
+    private <K, V> boolean offer(Map<K, ArrayDeque<V>> pool, K key, V value){
+        ArrayDeque<V> queue = pool.get(key);
+        if(queue == null){
+            queue = new ArrayDeque<V>(mMaxPoolSize);
+            pool.put(key, queue);
+        }
+        if(queue.size() >= mMaxPoolSize){
+            return false;
+        }
+        queue.offerFirst(value);
+        return true;
+    }
+
+    private static long getBitmapKey(int width, int height){
+        return ((long)width << 32) | (height & 0xffffffffL);
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.graphics;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * デコード時の縮小方法<br>
+ * デコーダが使う2の累乗の inSampleSize で要求サイズを下回らない範囲で最大限縮小し、
+ * 残りを inDensity / inTargetDensity による縮小で要求サイズに合わせる。<br>
+ * バイト数の上限を超える場合は上限に収まるまで inSampleSize を大きくする。
+ */
+public class SamplingPlan {
+
+    private final int mInSampleSize;
+    private final int mSampledWidth;
+    private final int mSampledHeight;
+    private final float mScale;
+    private final int mWidth;
+    private final int mHeight;
+    private final Bitmap.Config mConfig;
+
+    private SamplingPlan(int inSampleSize, int sampledWidth, int sampledHeight, float scale, Bitmap.Config config) {
+        mInSampleSize = inSampleSize;
+        mSampledWidth = sampledWidth;
+        mSampledHeight = sampledHeight;
+        mScale = scale;
+        mWidth = scale < 1 ? (int)(sampledWidth * scale + 0.5f) : sampledWidth;
+        mHeight = scale < 1 ? (int)(sampledHeight * scale + 0.5f) : sampledHeight;
+        mConfig = config;
+    }
+
+    /**
+     * 縮小方法を計算する
+     *
+     * @param options inJustDecodeBounds でデコードした outWidth, outHeight
+     * @param width 要求する幅 (0 以下の場合は制限しない)
+     * @param height 要求する高さ (0 以下の場合は制限しない)
+     * @param maxBytes デコード後のバイト数の上限 (0 以下の場合は制限しない)
+     * @param config
+     * @return plan
+     */
+    public static SamplingPlan create(BitmapFactory.Options options, int width, int height, long maxBytes, Bitmap.Config config){
+        return SamplingPlan.create(options.outWidth, options.outHeight, width, height, maxBytes, config);
+    }
+
+    /**
+     * 縮小方法を計算する
+     *
+     * @param srcWidth 元画像の幅
+     * @param srcHeight 元画像の高さ
+     * @param width 要求する幅 (0 以下の場合は制限しない)
+     * @param height 要求する高さ (0 以下の場合は制限しない)
+     * @param maxBytes デコード後のバイト数の上限 (0 以下の場合は制限しない)
+     * @param config
+     * @return plan
+     */
+    public static SamplingPlan create(int srcWidth, int srcHeight, int width, int height, long maxBytes, Bitmap.Config config){
+        if(srcWidth <= 0 || srcHeight <= 0){
+            return new SamplingPlan(1, srcWidth, srcHeight, 1, config);
+        }
+        int inSampleSize = 1;
+        if(width > 0 || height > 0){
+            // 縮小後も要求サイズを下回らない最大の2の累乗
+            while(SamplingPlan.covers(srcWidth, srcHeight, inSampleSize * 2, width, height)){
+                inSampleSize *= 2;
+            }
+        }
+        if(maxBytes > 0){
+            while(inSampleSize < Integer.MAX_VALUE / 2 && SamplingPlan.byteCount(srcWidth, srcHeight, inSampleSize, config) > maxBytes){
+                inSampleSize *= 2;
+            }
+        }
+        int sampledWidth = SamplingPlan.sampledSize(srcWidth, inSampleSize);
+        int sampledHeight = SamplingPlan.sampledSize(srcHeight, inSampleSize);
+        float scale = 1;
+        if(width > 0 || height > 0){
+            // 縦横とも要求サイズを覆う最小の倍率
+            float scaleX = width > 0 ? (float)width / sampledWidth : 0;
+            float scaleY = height > 0 ? (float)height / sampledHeight : 0;
+            scale = Math.min(Math.max(scaleX, scaleY), 1);
+        }
+        return new SamplingPlan(inSampleSize, sampledWidth, sampledHeight, scale, config);
+    }
+
+    private static boolean covers(int srcWidth, int srcHeight, int inSampleSize, int width, int height){
+        return SamplingPlan.sampledSize(srcWidth, inSampleSize) >= width && SamplingPlan.sampledSize(srcHeight, inSampleSize) >= height;
+    }
+
+    private static int sampledSize(int size, int inSampleSize){
+        return (size + inSampleSize - 1) / inSampleSize;
+    }
+
+    private static long byteCount(int srcWidth, int srcHeight, int inSampleSize, Bitmap.Config config){
+        return (long)SamplingPlan.sampledSize(srcWidth, inSampleSize) * SamplingPlan.sampledSize(srcHeight, inSampleSize) * SamplingPlan.bytesPerPixel(config);
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config){
+        return BitmapPool.getByteCount(1, 1, config);
+    }
+
+    /**
+     * BitmapFactory.Options に inSampleSize と縮小率を設定する
+     *
+     * @param options
+     */
+    public void apply(BitmapFactory.Options options){
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = mInSampleSize;
+        if(mConfig != null){
+            options.inPreferredConfig = mConfig;
+        }
+        if(mScale < 1){
+            options.inScaled = true;
+            options.inDensity = mSampledWidth >= mSampledHeight ? mSampledWidth : mSampledHeight;
+            options.inTargetDensity = mSampledWidth >= mSampledHeight ? mWidth : mHeight;
+        }
+    }
+
+    /**
+     * {@link #apply(BitmapFactory.Options)} でデコードした Bitmap の density を戻す<br>
+     * inTargetDensity で縮小すると density が inTargetDensity のまま残り、BitmapDrawable や ImageView で表示する大きさが変わるので、
+     * inDensity / inTargetDensity を使わずにデコードした場合と同じ端末の density にする。
+     *
+     * @param bitmap
+     * @return bitmap
+     */
+    public Bitmap restoreDensity(Bitmap bitmap){
+        if(bitmap != null && mScale < 1){
+            bitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+        }
+        return bitmap;
+    }
+
+    public int getInSampleSize(){
+        return mInSampleSize;
+    }
+
+    /**
+     * 最終的な縮小率 (1 の場合は縮小しない)
+     */
+    public float getScale(){
+        return mScale;
+    }
+
+    /**
+     * デコード後の幅の予測値
+     */
+    public int getWidth(){
+        return mWidth;
+    }
+
+    /**
+     * デコード後の高さの予測値
+     */
+    public int getHeight(){
+        return mHeight;
+    }
+
+    /**
+     * デコード後のバイト数の予測値
+     */
+    public long getByteCount(){
+        return (long)mWidth * mHeight * SamplingPlan.bytesPerPixel(mConfig);
+    }
+
+    /**
+     * inSampleSize だけでデコードしたときのバイト数の予測値 (デコード中の最大値)
+     */
+    public long getSampledByteCount(){
+        return (long)mSampledWidth * mSampledHeight * SamplingPlan.bytesPerPixel(mConfig);
+    }
+
+    @Override
+    public String toString(){
+        return SamplingPlan.class.getSimpleName() + "[inSampleSize=" + mInSampleSize + ", scale=" + mScale + ", " + mWidth + "x" + mHeight + ", bytes=" + getByteCount() + "]";
+    }
+
+}
@@ -0,0 +1,555 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.graphics;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import at.wada811.utils.BitmapUtils;
+import at.wada811.utils.FileNameUtils;
+import at.wada811.utils.LogUtils;
+import at.wada811.utils.MediaUtils;
+import at.wada811.utils.ThreadUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EventListener;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 大量の画像ファイルのサムネイルを並列に生成して保存する<br>
+ * ファイルの読み込み、デコード、回転と縮小、圧縮、書き込みを1ファイルずつワーカースレッドで行い、
+ * 終わったものから順に保存して進捗を通知する。<br>
+ * 待ち行列はスレッド数の2倍までで、デコード直後の大きな Bitmap を同時に保持する数も制限する。
+ *
+ * <pre>
+ * ThumbnailGenerator generator = new ThumbnailGenerator(256, 256);
+ * ThumbnailGenerator.Batch batch = generator.generate(filePaths, thumbnailDir, listener);
+ * // 画面を閉じたら
+ * batch.cancel();
+ * </pre>
+ */
+public class ThumbnailGenerator {
+
+    /**
+     * サムネイル生成の処理段階
+     */
+    public static enum Stage {
+        READ, DECODE, SCALE, ENCODE, WRITE;
+    }
+
+    /**
+     * 進捗をメインスレッドで通知するリスナー
+     */
+    public interface OnThumbnailListener extends EventListener {
+
+        /**
+         * 1ファイル処理するごとに呼ばれる (キャンセルして処理しなかったファイルでは呼ばれない)
+         *
+         * @param batch
+         * @param filePath 元画像のパス
+         * @param thumbnail 保存したサムネイル (失敗した場合は null)
+         */
+        public void onThumbnailGenerated(Batch batch, String filePath, File thumbnail);
+
+        /**
+         * 全て処理したか、キャンセルして処理中のものが終わったときに呼ばれる
+         *
+         * @param batch
+         */
+        public void onFinished(Batch batch);
+    }
+
+    /**
+     * 処理段階ごとの所要時間の集計
+     */
+    public static final class Timings {
+
+        private final AtomicLongArray mNanos = new AtomicLongArray(Stage.values().length);
+        private final AtomicLongArray mCounts = new AtomicLongArray(Stage.values().length);
+
+        private Timings() {
+        }
+
+        private void add(Stage stage, long nanos){
+            mNanos.addAndGet(stage.ordinal(), nanos);
+            mCounts.incrementAndGet(stage.ordinal());
+        }
+
+        /**
+         * 全ワーカーの合計時間 (ミリ秒)
+         */
+        public long getTotalMillis(Stage stage){
+            return mNanos.get(stage.ordinal()) / 1000000;
+        }
+
+        /**
+         * 1ファイルあたりの平均時間 (ミリ秒)
+         */
+        public double getAverageMillis(Stage stage){
+            long count = mCounts.get(stage.ordinal());
+            return count == 0 ? 0 : mNanos.get(stage.ordinal()) / 1000000.0 / count;
+        }
+
+        @Override
+        public String toString(){
+            StringBuilder builder = new StringBuilder(Timings.class.getSimpleName()).append('[');
+            for(Stage stage : Stage.values()){
+                if(stage.ordinal() > 0){
+                    builder.append(", ");
+                }
+                builder.append(stage.name().toLowerCase()).append('=').append(String.format("%.1f", getAverageMillis(stage))).append("ms");
+            }
+            return builder.append(']').toString();
+        }
+    }
+
+    /**
+     * 1回の一括生成
+     */
+    public final class Batch {
+
+        private final List<String> mFilePaths;
+        private final File mOutputDir;
+        private final OnThumbnailListener mListener;
+        private final Timings mTimings = new Timings();
+        private final AtomicInteger mCompletedCount = new AtomicInteger();
+        private final AtomicInteger mFailedCount = new AtomicInteger();
+        private final AtomicInteger mCancelledCount = new AtomicInteger();
+        /** 投入済みで終わっていない数 */
+        private final AtomicInteger mRunningCount = new AtomicInteger();
+        private final AtomicBoolean mIsFinished = new AtomicBoolean();
+        private volatile boolean mIsCancelled;
+        private volatile boolean mIsFed;
+        private volatile Thread mFeeder;
+
+        private Batch(List<String> filePaths, File outputDir, OnThumbnailListener listener) {
+            mFilePaths = new ArrayList<String>(filePaths);
+            mOutputDir = outputDir;
+            mListener = listener;
+        }
+
+        /**
+         * 未処理のファイルの処理をやめる (処理中のものは最後まで処理する)
+         */
+        public void cancel(){
+            mIsCancelled = true;
+            Thread feeder = mFeeder;
+            if(feeder != null){
+                feeder.interrupt();
+            }
+        }
+
+        public boolean isCancelled(){
+            return mIsCancelled;
+        }
+
+        public boolean isFinished(){
+            return mIsFinished.get();
+        }
+
+        public int getTotalCount(){
+            return mFilePaths.size();
+        }
+
+        /**
+         * 処理し終えた数 (失敗した数を含む)
+         */
+        public int getCompletedCount(){
+            return mCompletedCount.get();
+        }
+
+        /**
+         * 読み込みやデコードに失敗した数 (キャンセルした数は含まない)
+         */
+        public int getFailedCount(){
+            return mFailedCount.get();
+        }
+
+        /**
+         * キャンセルしたので処理しなかった数
+         */
+        public int getCancelledCount(){
+            return mCancelledCount.get();
+        }
+
+        public Timings getTimings(){
+            return mTimings;
+        }
+
+        private void onTaskFinished(){
+            if(mRunningCount.decrementAndGet() == 0 && mIsFed){
+                finish();
+            }
+        }
+
+        private void finish(){
+            if(mIsFinished.compareAndSet(false, true) && mListener != null){
+                mHandler.post(new Runnable(){
+                    @Override
+                    public void run(){
+                        mListener.onFinished(Batch.this);
+                    }
+                });
+            }
+        }
+    }
+
+    private static final int DEFAULT_MAX_BUFFER_COUNT = 8;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mThreadCount;
+    private final ExecutorService mExecutor;
+    /** {@link #generate(List, File, OnThumbnailListener)} ごとに待ち行列に投入するスレッド */
+    private final ThreadFactory mFeederFactory = ThreadUtils.newBackgroundThreadFactory(ThumbnailGenerator.class.getSimpleName() + "#feeder");
+    /** 待ち行列に入れられる数 */
+    private final Semaphore mQueueSlots;
+    /** デコード直後の Bitmap を保持できる数 */
+    private final Semaphore mDecodeSlots;
+    private final BitmapPool mBitmapPool;
+    /** ファイルを読み込むバッファ */
+    private final ArrayDeque<byte[]> mBuffers = new ArrayDeque<byte[]>();
+    private final ThreadLocal<ByteArrayOutputStream> mEncodeBuffer = new ThreadLocal<ByteArrayOutputStream>(){
+        @Override
+        protected ByteArrayOutputStream initialValue(){
+            return new ByteArrayOutputStream(64 * 1024);
+        }
+    };
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private volatile Bitmap.Config mConfig = Bitmap.Config.ARGB_8888;
+    private volatile int mQuality = MediaUtils.DEFAULT_COMPRESS_QUALITY;
+
+    /**
+     * CPU のコア数と同じスレッド数で生成する
+     *
+     * @param width サムネイルの最大の幅
+     * @param height サムネイルの最大の高さ
+     */
+    public ThumbnailGenerator(int width, int height) {
+        this(width, height, Runtime.getRuntime().availableProcessors(), Runtime.getRuntime().availableProcessors(), null);
+    }
+
+    /**
+     * @param width サムネイルの最大の幅
+     * @param height サムネイルの最大の高さ
+     * @param threadCount 同時に処理する最大数
+     * @param maxDecodedBitmaps デコード直後の Bitmap を同時に保持する最大数
+     * @param pool デコードと縮小に再利用する Bitmap のプール (null の場合はプールしない)
+     */
+    public ThumbnailGenerator(int width, int height, int threadCount, int maxDecodedBitmaps, BitmapPool pool) {
+        if(width < 1 || height < 1){
+            throw new IllegalArgumentException("size must be positive: " + width + "x" + height);
+        }
+        if(threadCount < 1 || maxDecodedBitmaps < 1){
+            throw new IllegalArgumentException("threadCount and maxDecodedBitmaps must be positive: " + threadCount + ", " + maxDecodedBitmaps);
+        }
+        mWidth = width;
+        mHeight = height;
+        mThreadCount = threadCount;
+        mQueueSlots = new Semaphore(threadCount * 2);
+        mDecodeSlots = new Semaphore(maxDecodedBitmaps);
+        mBitmapPool = pool;
+        mExecutor = Executors.newFixedThreadPool(threadCount, ThreadUtils.newBackgroundThreadFactory(ThumbnailGenerator.class.getSimpleName()));
+    }
+
+    /**
+     * デコードに使う Bitmap.Config を設定する
+     *
+     * @param config
+     */
+    public void setConfig(Bitmap.Config config){
+        mConfig = config;
+    }
+
+    /**
+     * JPEG と WEBP の圧縮品質を設定する
+     *
+     * @param quality 0-100
+     */
+    public void setQuality(int quality){
+        mQuality = quality;
+    }
+
+    /**
+     * サムネイルの生成を開始する<br>
+     * サムネイルは outputDir に元画像と同じファイル名で保存する。
+     *
+     * @param filePaths 元画像のパス
+     * @param outputDir 保存先のディレクトリ
+     * @param listener
+     * @return batch
+     */
+    public Batch generate(List<String> filePaths, File outputDir, OnThumbnailListener listener){
+        if(!outputDir.isDirectory() && !outputDir.mkdirs()){
+            LogUtils.e("Can't create " + outputDir);
+        }
+        final Batch batch = new Batch(filePaths, outputDir, listener);
+        batch.mFeeder = mFeederFactory.newThread(new Runnable(){
+            @Override
+            public void run(){
+                feed(batch);
+            }
+        });
+        batch.mFeeder.start();
+        return batch;
+    }
+
+    /**
+     * 待ち行列に空きができるのを待ちながら投入する
+     */
+    private void feed(final Batch batch){
+        // 全て投入するまで終了させない
+        batch.mRunningCount.incrementAndGet();
+        int fedCount = 0;
+        try{
+            for(final String filePath : batch.mFilePaths){
+                if(batch.mIsCancelled){
+                    break;
+                }
+                mQueueSlots.acquire();
+                batch.mRunningCount.incrementAndGet();
+                try{
+                    mExecutor.execute(new Runnable(){
+                        @Override
+                        public void run(){
+                            try{
+                                process(batch, filePath);
+                            }finally{
+                                mQueueSlots.release();
+                                batch.onTaskFinished();
+                            }
+                        }
+                    });
+                }catch(RejectedExecutionException e){
+                    // shutdown 済み
+                    mQueueSlots.release();
+                    batch.mRunningCount.decrementAndGet();
+                    break;
+                }
+                fedCount++;
+            }
+        }catch(InterruptedException e){
+            // キャンセル
+        }finally{
+            // 投入しなかった分
+            batch.mCancelledCount.addAndGet(batch.mFilePaths.size() - fedCount);
+            batch.mIsFed = true;
+            batch.onTaskFinished();
+        }
+    }
+
+    private void process(final Batch batch, final String filePath){
+        if(batch.mIsCancelled){
+            batch.mCancelledCount.incrementAndGet();
+            return;
+        }
+        File thumbnail = null;
+        try{
+            thumbnail = generate(batch, filePath);
+        }catch(Exception e){
+            LogUtils.e(filePath, e);
+        }catch(OutOfMemoryError e){
+            LogUtils.e(filePath, e);
+            if(mBitmapPool != null){
+                mBitmapPool.clear();
+            }
+        }
+        batch.mCompletedCount.incrementAndGet();
+        if(thumbnail == null){
+            batch.mFailedCount.incrementAndGet();
+        }
+        if(batch.mListener != null){
+            final File result = thumbnail;
+            mHandler.post(new Runnable(){
+                @Override
+                public void run(){
+                    batch.mListener.onThumbnailGenerated(batch, filePath, result);
+                }
+            });
+        }
+    }
+
+    private File generate(Batch batch, String filePath) throws IOException, InterruptedException{
+        final Timings timings = batch.mTimings;
+        File src = new File(filePath);
+        File dest = new File(batch.mOutputDir, src.getName());
+
+        long start = System.nanoTime();
+        int length = (int)src.length();
+        byte[] buffer = obtainBuffer(length);
+        Bitmap thumbnail;
+        try{
+            if(!ThumbnailGenerator.readFully(src, buffer, length)){
+                return null;
+            }
+            int orientation = BitmapUtils.getImageOrientation(filePath);
+            long read = System.nanoTime();
+            timings.add(Stage.READ, read - start);
+
+            mDecodeSlots.acquire();
+            try{
+                Bitmap decoded = decode(buffer, length, orientation);
+                if(decoded == null){
+                    return null;
+                }
+                long decodeEnd = System.nanoTime();
+                timings.add(Stage.DECODE, decodeEnd - read);
+
+                thumbnail = scale(decoded, orientation);
+                if(thumbnail != decoded){
+                    recycle(decoded);
+                }
+                start = System.nanoTime();
+                timings.add(Stage.SCALE, start - decodeEnd);
+            }finally{
+                mDecodeSlots.release();
+            }
+        }finally{
+            recycleBuffer(buffer);
+        }
+
+        ByteArrayOutputStream encoded = mEncodeBuffer.get();
+        encoded.reset();
+        CompressFormat format = MediaUtils.getCompressFormat(FileNameUtils.getExtension(dest.getName()));
+        boolean compressed = thumbnail.compress(format, mQuality, encoded);
+        recycle(thumbnail);
+        long encodeEnd = System.nanoTime();
+        timings.add(Stage.ENCODE, encodeEnd - start);
+        if(!compressed){
+            return null;
+        }
+
+        FileOutputStream fos = new FileOutputStream(dest);
+        try{
+            encoded.writeTo(fos);
+        }finally{
+            fos.close();
+        }
+        timings.add(Stage.WRITE, System.nanoTime() - encodeEnd);
+        return dest;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private Bitmap decode(byte[] data, int length, int orientation){
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, length, options);
+        if(options.outWidth <= 0 || options.outHeight <= 0){
+            return null;
+        }
+        boolean isRotated = Math.abs(orientation % 180) == 90;
+        int width = isRotated ? mHeight : mWidth;
+        int height = isRotated ? mWidth : mHeight;
+        SamplingPlan plan = SamplingPlan.create(options, width, height, 0, mConfig);
+        plan.apply(options);
+        if(mBitmapPool != null && mBitmapPool.applyInBitmap(options)){
+            try{
+                return plan.restoreDensity(BitmapFactory.decodeByteArray(data, 0, length, options));
+            }catch(IllegalArgumentException e){
+                mBitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+            }
+        }
+        return plan.restoreDensity(BitmapFactory.decodeByteArray(data, 0, length, options));
+    }
+
+    /**
+     * 向きを直して最大サイズに収まるように縮小する
+     */
+    private Bitmap scale(Bitmap bitmap, int orientation){
+        BitmapTransform transform = new BitmapTransform(bitmap.getWidth(), bitmap.getHeight()).rotate(orientation);
+        float scale = Math.min(Math.min((float)mWidth / transform.getWidth(), (float)mHeight / transform.getHeight()), 1);
+        if(scale < 1){
+            transform.resize(Math.max(Math.round(transform.getWidth() * scale), 1), Math.max(Math.round(transform.getHeight() * scale), 1));
+        }
+        if(transform.getWidth() == bitmap.getWidth() && transform.getHeight() == bitmap.getHeight() && orientation % 360 == 0){
+            return bitmap;
+        }
+        return mBitmapPool != null ? transform.apply(bitmap, mBitmapPool) : transform.apply(bitmap);
+    }
+
+    private void recycle(Bitmap bitmap){
+        if(mBitmapPool != null){
+            mBitmapPool.put(bitmap);
+        }else{
+            bitmap.recycle();
+        }
+    }
+
+    private static boolean readFully(File file, byte[] buffer, int length) throws IOException{
+        FileInputStream fis = new FileInputStream(file);
+        try{
+            int offset = 0;
+            while(offset < length){
+                int count = fis.read(buffer, offset, length - offset);
+                if(count < 0){
+                    return false;
+                }
+                offset += count;
+            }
+            return true;
+        }finally{
+            fis.close();
+        }
+    }
+
+    private byte[] obtainBuffer(int length){
+        synchronized(mBuffers){
+            byte[] buffer = mBuffers.pollFirst();
+            if(buffer != null && buffer.length >= length){
+                return buffer;
+            }
+        }
+        // 足りない場合は小さいバッファを捨てて作り直す
+        return new byte[length];
+    }
+
+    private void recycleBuffer(byte[] buffer){
+        synchronized(mBuffers){
+            if(mBuffers.size() < Math.max(mThreadCount, DEFAULT_MAX_BUFFER_COUNT)){
+                mBuffers.offerFirst(buffer);
+            }
+        }
+    }
+
+    /**
+     * スレッドを停止する (処理中のものは最後まで処理する)
+     */
+    public void shutdown(){
+        mExecutor.shutdown();
+        synchronized(mBuffers){
+            mBuffers.clear();
+        }
+    }
+
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.graphics;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import at.wada811.utils.LogUtils;
+import at.wada811.utils.ThreadUtils;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EventListener;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 巨大な画像を表示範囲のタイルだけデコードするデコーダ<br>
+ * タイルは縮小率に応じた inSampleSize でデコードして LRU でキャッシュする。<br>
+ * 表示範囲のタイルは周囲の先読みより優先してバックグラウンドでデコードし、
+ * 終わったら {@link OnTileDecodedListener} にメインスレッドで通知する。<br>
+ * 画像全体をメモリに展開することはない。
+ *
+ * <pre>
+ * TiledBitmapDecoder decoder = new TiledBitmapDecoder(filePath, 256, 16 * 1024 * 1024);
+ * decoder.setOnTileDecodedListener(new TiledBitmapDecoder.OnTileDecodedListener(){
+ *     public void onTileDecoded(TiledBitmapDecoder.Tile tile){
+ *         view.invalidate();
+ *     }
+ * });
+ * // onDraw などで表示範囲 (画像の座標) と表示倍率を渡す
+ * for(TiledBitmapDecoder.Tile tile : decoder.decodeTiles(visibleRect, scale)){
+ *     canvas.drawBitmap(tile.getBitmap(), null, toViewRect(tile.getRect()), paint);
+ * }
+ * </pre>
+ */
+@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+public class TiledBitmapDecoder {
+
+    /**
+     * 表示範囲のタイルのデコードが終わったときにメインスレッドで呼ばれるリスナー
+     */
+    public interface OnTileDecodedListener extends EventListener {
+
+        /**
+         * @param tile
+         */
+        public void onTileDecoded(Tile tile);
+    }
+
+    /**
+     * デコードしたタイル
+     */
+    public static final class Tile {
+
+        private final int mSampleSize;
+        private final Rect mRect;
+        private final Bitmap mBitmap;
+
+        private Tile(int sampleSize, Rect rect, Bitmap bitmap) {
+            mSampleSize = sampleSize;
+            mRect = rect;
+            mBitmap = bitmap;
+        }
+
+        public int getSampleSize(){
+            return mSampleSize;
+        }
+
+        /**
+         * 元画像の座標でのタイルの範囲
+         */
+        public Rect getRect(){
+            return new Rect(mRect);
+        }
+
+        public Bitmap getBitmap(){
+            return mBitmap;
+        }
+    }
+
+    /** 先読みする周囲のタイル数 */
+    private static final int PREFETCH_DISTANCE = 1;
+    /** 先読みの待ち行列の最大数 (超えた分は次の decodeTiles で投入し直す) */
+    private static final int PREFETCH_QUEUE_SIZE = 64;
+
+    /**
+     * タイル1枚のデコード<br>
+     * 表示範囲のタイルは先読みより先に実行する。実行時に先読みする範囲から外れていればデコードしない。
+     */
+    private final class TileTask implements Runnable, Comparable<TileTask> {
+
+        private final long mId;
+        private final int mSampleSize;
+        private final int mCol;
+        private final int mRow;
+        private final boolean mIsVisible;
+        private final long mSequence;
+
+        private TileTask(int sampleSize, int col, int row, boolean isVisible) {
+            mId = TiledBitmapDecoder.createTileId(sampleSize, col, row);
+            mSampleSize = sampleSize;
+            mCol = col;
+            mRow = row;
+            mIsVisible = isVisible;
+            mSequence = mTaskSequence.getAndIncrement();
+        }
+
+        private boolean isInWindow(int[] window){
+            return mSampleSize == window[0] && mCol >= window[1] && mRow >= window[2] && mCol <= window[3] && mRow <= window[4];
+        }
+
+        @Override
+        public int compareTo(TileTask another){
+            if(mIsVisible != another.mIsVisible){
+                return mIsVisible ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+
+        @Override
+        public void run(){
+            Tile tile = null;
+            try{
+                if(isInWindow(mPrefetchWindow)){
+                    tile = decodeTile(mSampleSize, mCol, mRow);
+                }
+            }catch(RuntimeException e){
+                LogUtils.e(e);
+            }finally{
+                synchronized(mPending){
+                    mPending.remove(mId);
+                }
+            }
+            // 先読みしたタイルでも表示範囲に入っていれば通知する
+            if(tile != null && isInWindow(mVisibleWindow)){
+                deliver(tile);
+            }
+        }
+    }
+
+    private final BitmapRegionDecoder mDecoder;
+    private final int mTileSize;
+    private final int mImageWidth;
+    private final int mImageHeight;
+    private final BitmapCache mCache;
+    private final ThreadPoolExecutor mExecutor;
+    /** 待ち中とデコード中のタスク */
+    private final Map<Long, TileTask> mPending = new HashMap<Long, TileTask>();
+    private final AtomicLong mTaskSequence = new AtomicLong();
+    /** 表示範囲 (sampleSize, left, top, right, bottom) */
+    private volatile int[] mVisibleWindow = new int[5];
+    /** 先読みする範囲 (sampleSize, left, top, right, bottom) */
+    private volatile int[] mPrefetchWindow = new int[5];
+    private final Bitmap.Config mConfig;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private volatile OnTileDecodedListener mListener;
+
+    /**
+     * @param filePath
+     * @param tileSize デコード後のタイルの一辺のピクセル数
+     * @param cacheBytes タイルのキャッシュのバイト数の上限
+     * @throws IOException 画像を開けない場合
+     */
+    public TiledBitmapDecoder(String filePath, int tileSize, long cacheBytes) throws IOException {
+        this(BitmapRegionDecoder.newInstance(filePath, false), tileSize, cacheBytes, Bitmap.Config.RGB_565);
+    }
+
+    /**
+     * @param decoder
+     * @param tileSize デコード後のタイルの一辺のピクセル数
+     * @param cacheBytes タイルのキャッシュのバイト数の上限
+     * @param config
+     */
+    public TiledBitmapDecoder(BitmapRegionDecoder decoder, int tileSize, long cacheBytes, Bitmap.Config config) {
+        if(tileSize < 1){
+            throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+        }
+        mDecoder = decoder;
+        mTileSize = tileSize;
+        mImageWidth = decoder.getWidth();
+        mImageHeight = decoder.getHeight();
+        // 描画中のタイルが追い出されることがあるので recycle はせず GC に任せる
+        mCache = new BitmapCache(cacheBytes);
+        mConfig = config;
+        // 表示範囲のタイルを先に取り出すので優先度付きの待ち行列にする (先読みの数は prefetch で制限する)
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), ThreadUtils.newBackgroundThreadFactory(TiledBitmapDecoder.class.getSimpleName()));
+    }
+
+    /**
+     * 表示範囲のタイルのデコードが終わったときに呼ばれるリスナーを設定する
+     *
+     * @param listener
+     */
+    public void setOnTileDecodedListener(OnTileDecodedListener listener){
+        mListener = listener;
+    }
+
+    public int getImageWidth(){
+        return mImageWidth;
+    }
+
+    public int getImageHeight(){
+        return mImageHeight;
+    }
+
+    /**
+     * 表示倍率に対応する inSampleSize を計算する
+     *
+     * @param scale 表示倍率 (1 で等倍)
+     * @return 1/scale 以下の最大の2の累乗
+     */
+    public static int getSampleSize(float scale){
+        int sampleSize = 1;
+        if(scale <= 0){
+            return sampleSize;
+        }
+        while(sampleSize * 2 * scale <= 1){
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * 表示範囲にかかるタイルのうちキャッシュにあるものを返す<br>
+     * キャッシュに無いタイルは周囲の先読みより優先してバックグラウンドでデコードし、
+     * {@link OnTileDecodedListener} に通知する。呼び出したスレッドではデコードしない。
+     *
+     * @param visibleRect 元画像の座標での表示範囲
+     * @param scale 表示倍率
+     * @return キャッシュにあった表示範囲にかかるタイル (表示範囲が画像の外の場合は空)
+     */
+    public List<Tile> decodeTiles(Rect visibleRect, float scale){
+        List<Tile> tiles = new ArrayList<Tile>();
+        int visibleLeft = Math.max(visibleRect.left, 0);
+        int visibleTop = Math.max(visibleRect.top, 0);
+        int visibleRight = Math.min(visibleRect.right, mImageWidth);
+        int visibleBottom = Math.min(visibleRect.bottom, mImageHeight);
+        if(visibleLeft >= visibleRight || visibleTop >= visibleBottom){
+            return tiles;
+        }
+        final int sampleSize = TiledBitmapDecoder.getSampleSize(scale);
+        final int span = mTileSize * sampleSize;
+        int left = visibleLeft / span;
+        int top = visibleTop / span;
+        int right = (visibleRight - 1) / span;
+        int bottom = (visibleBottom - 1) / span;
+        mVisibleWindow = new int[]{ sampleSize, left, top, right, bottom };
+        int[] window = new int[]{ sampleSize, left - PREFETCH_DISTANCE, top - PREFETCH_DISTANCE, right + PREFETCH_DISTANCE, bottom + PREFETCH_DISTANCE };
+        mPrefetchWindow = window;
+        removeStaleTasks(window);
+        for(int row = top; row <= bottom; row++){
+            for(int col = left; col <= right; col++){
+                Tile tile = getCachedTile(sampleSize, col, row);
+                if(tile != null){
+                    tiles.add(tile);
+                }else if(!enqueue(sampleSize, col, row, true)){
+                    return tiles;
+                }
+            }
+        }
+        prefetch(window);
+        return tiles;
+    }
+
+    private Tile getCachedTile(int sampleSize, int col, int row){
+        Rect rect = getTileRect(sampleSize, col, row);
+        if(rect == null){
+            return null;
+        }
+        Bitmap bitmap = mCache.get(createKey(sampleSize, col, row));
+        return bitmap == null ? null : new Tile(sampleSize, rect, bitmap);
+    }
+
+    /**
+     * タイルを1枚デコードする (キャッシュにあればそれを返す)<br>
+     * 呼び出したスレッドでデコードするので、メインスレッドからは {@link #decodeTiles(Rect, float)} を使う。
+     *
+     * @param sampleSize
+     * @param col
+     * @param row
+     * @return 画像の範囲外の場合は null
+     */
+    public Tile decodeTile(int sampleSize, int col, int row){
+        Rect rect = getTileRect(sampleSize, col, row);
+        if(rect == null){
+            return null;
+        }
+        BitmapCache.Key key = createKey(sampleSize, col, row);
+        Bitmap bitmap = mCache.get(key);
+        if(bitmap == null){
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = mConfig;
+            synchronized(mDecoder){
+                if(mDecoder.isRecycled()){
+                    return null;
+                }
+                bitmap = mDecoder.decodeRegion(rect, options);
+            }
+            if(bitmap == null){
+                return null;
+            }
+            mCache.put(key, bitmap);
+        }
+        return new Tile(sampleSize, rect, bitmap);
+    }
+
+    private Rect getTileRect(int sampleSize, int col, int row){
+        final int span = mTileSize * sampleSize;
+        int left = col * span;
+        int top = row * span;
+        if(col < 0 || row < 0 || left >= mImageWidth || top >= mImageHeight){
+            return null;
+        }
+        return new Rect(left, top, Math.min(left + span, mImageWidth), Math.min(top + span, mImageHeight));
+    }
+
+    private BitmapCache.Key createKey(int sampleSize, int col, int row){
+        return new BitmapCache.Key(TiledBitmapDecoder.createTileId(sampleSize, col, row), mTileSize, mTileSize, mConfig);
+    }
+
+    private static long createTileId(int sampleSize, int col, int row){
+        return ((long)sampleSize << 48) | ((long)(col & 0xffffff) << 24) | (row & 0xffffff);
+    }
+
+    /**
+     * スクロールや拡大縮小で範囲から外れた待ち中のタスクを捨てる
+     */
+    private void removeStaleTasks(int[] window){
+        for(Runnable runnable : mExecutor.getQueue().toArray(new Runnable[0])){
+            TileTask task = (TileTask)runnable;
+            if(!task.isInWindow(window) && mExecutor.remove(task)){
+                synchronized(mPending){
+                    if(mPending.get(task.mId) == task){
+                        mPending.remove(task.mId);
+                    }
+                }
+            }
+        }
+    }
+
+    private void prefetch(int[] window){
+        for(int row = window[2]; row <= window[4]; row++){
+            for(int col = window[1]; col <= window[3]; col++){
+                if(mExecutor.getQueue().size() >= PREFETCH_QUEUE_SIZE){
+                    return;
+                }
+                if(getTileRect(window[0], col, row) == null || mCache.get(createKey(window[0], col, row)) != null){
+                    continue;
+                }
+                if(!enqueue(window[0], col, row, false)){
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * タイルのデコードを待ち行列に入れる<br>
+     * 先読みで待っているタイルが表示範囲に入った場合は表示範囲の優先度で入れ直す。
+     *
+     * @return recycle 済みの場合は false
+     */
+    private boolean enqueue(int sampleSize, int col, int row, boolean isVisible){
+        TileTask task = new TileTask(sampleSize, col, row, isVisible);
+        synchronized(mPending){
+            TileTask pending = mPending.get(task.mId);
+            if(pending != null && (pending.mIsVisible || !isVisible || !mExecutor.remove(pending))){
+                // 待ち中かデコード中 (デコード中の先読みも表示範囲に入っていれば通知する)
+                return true;
+            }
+            mPending.put(task.mId, task);
+        }
+        try{
+            mExecutor.execute(task);
+            return true;
+        }catch(RejectedExecutionException e){
+            // recycle 済み
+            synchronized(mPending){
+                mPending.remove(task.mId);
+            }
+            return false;
+        }
+    }
+
+    private void deliver(final Tile tile){
+        mHandler.post(new Runnable(){
+            @Override
+            public void run(){
+                OnTileDecodedListener listener = mListener;
+                if(listener != null){
+                    listener.onTileDecoded(tile);
+                }
+            }
+        });
+    }
+
+    /**
+     * キャッシュしているタイルを破棄する
+     */
+    public void clearCache(){
+        mCache.evictAll();
+    }
+
+    /**
+     * デコーダを解放する
+     */
+    public void recycle(){
+        mListener = null;
+        mExecutor.shutdownNow();
+        synchronized(mDecoder){
+            mDecoder.recycle();
+        }
+        mCache.evictAll();
+    }
+
+}
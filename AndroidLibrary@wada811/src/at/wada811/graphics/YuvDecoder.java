@@ -0,0 +1,264 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.graphics;
+
+import android.os.Process;
+import at.wada811.utils.ThreadUtils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * YUV420SP(NV21) / YUY2 を ARGB に変換するデコーダ<br>
+ * フレームを2行単位の帯に分割して複数スレッドで変換する。<br>
+ * NV21 の出力は {@link at.wada811.utils.BitmapUtils#decodeYUV420SP(int[], byte[], int, int)} と完全に一致する。
+ */
+public class YuvDecoder {
+
+    /** 1192 * (y - 16) を y=0..255 で事前計算したテーブル(負の値は 0) */
+    private static final int[] Y_TABLE = new int[256];
+    /** 1634 * v */
+    private static final int[] V_R_TABLE = new int[256];
+    /** 833 * v */
+    private static final int[] V_G_TABLE = new int[256];
+    /** 400 * u */
+    private static final int[] U_G_TABLE = new int[256];
+    /** 2066 * u */
+    private static final int[] U_B_TABLE = new int[256];
+    /** (x >> 10) の取りうる範囲 [-260, 535] を 0..255 に丸めるテーブルのオフセット */
+    private static final int CLAMP_OFFSET = 512;
+    /** 赤成分の丸めテーブル(シフト済み) */
+    private static final int[] CLAMP_R = new int[CLAMP_OFFSET * 3];
+    /** 緑成分の丸めテーブル(シフト済み) */
+    private static final int[] CLAMP_G = new int[CLAMP_OFFSET * 3];
+    /** 青成分の丸めテーブル */
+    private static final int[] CLAMP_B = new int[CLAMP_OFFSET * 3];
+
+    static{
+        for(int i = 0; i < 256; i++){
+            Y_TABLE[i] = 1192 * Math.max(i - 16, 0);
+            V_R_TABLE[i] = 1634 * (i - 128);
+            V_G_TABLE[i] = 833 * (i - 128);
+            U_G_TABLE[i] = 400 * (i - 128);
+            U_B_TABLE[i] = 2066 * (i - 128);
+        }
+        for(int i = 0; i < CLAMP_R.length; i++){
+            int value = Math.min(Math.max(i - CLAMP_OFFSET, 0), 255);
+            CLAMP_R[i] = value << 16;
+            CLAMP_G[i] = value << 8;
+            CLAMP_B[i] = value;
+        }
+    }
+
+    /** 1スレッドに割り当てる最小の行数(チャネルの行と揃えるため偶数) */
+    private static final int MIN_STRIPE_ROWS = 16;
+
+    private static final int FORMAT_NV21 = 0;
+    private static final int FORMAT_YUY2 = 1;
+
+    private final ExecutorService mExecutor;
+    private final int mThreadCount;
+
+    /**
+     * CPU のコア数だけスレッドを使うデコーダを生成する
+     */
+    public YuvDecoder() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 指定したスレッド数を使うデコーダを生成する
+     *
+     * @param threadCount
+     */
+    public YuvDecoder(int threadCount) {
+        if(threadCount < 1){
+            throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+        }
+        mThreadCount = threadCount;
+        mExecutor = threadCount == 1 ? null : Executors.newFixedThreadPool(threadCount, ThreadUtils.newThreadFactory(YuvDecoder.class.getSimpleName(), Process.THREAD_PRIORITY_DEFAULT));
+    }
+
+    /**
+     * YUV420SP を ARGB に変換する
+     *
+     * @param rgb width * height 以上の長さの出力先
+     * @param yuv420sp
+     * @param width
+     * @param height
+     */
+    public void decode(int[] rgb, byte[] yuv420sp, int width, int height){
+        decode(FORMAT_NV21, rgb, yuv420sp, width, height);
+    }
+
+    /**
+     * YUY2(YUYV) を ARGB に変換する
+     *
+     * @param rgb width * height 以上の長さの出力先
+     * @param yuy2
+     * @param width
+     * @param height
+     */
+    public void decodeYuy2(int[] rgb, byte[] yuy2, int width, int height){
+        decode(FORMAT_YUY2, rgb, yuy2, width, height);
+    }
+
+    private void decode(final int format, final int[] rgb, final byte[] data, final int width, final int height){
+        int stripeCount = Math.min(mThreadCount, Math.max(height / MIN_STRIPE_ROWS, 1));
+        if(mExecutor == null || stripeCount == 1){
+            YuvDecoder.decodeRows(format, rgb, data, width, height, 0, height);
+            return;
+        }
+        // 2行で1行分のクロマを共有するので帯の境界は偶数行にする
+        final int pairs = (height + 1) >> 1;
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(stripeCount);
+        for(int i = 0; i < stripeCount; i++){
+            final int startRow = Math.min((int)((long)pairs * i / stripeCount) << 1, height);
+            final int endRow = Math.min((int)((long)pairs * (i + 1) / stripeCount) << 1, height);
+            if(i == stripeCount - 1){
+                // 最後の帯は呼び出し元スレッドで変換する
+                YuvDecoder.decodeRows(format, rgb, data, width, height, startRow, endRow);
+                break;
+            }
+            futures.add(mExecutor.submit(new Callable<Void>(){
+                @Override
+                public Void call() throws Exception{
+                    YuvDecoder.decodeRows(format, rgb, data, width, height, startRow, endRow);
+                    return null;
+                }
+            }));
+        }
+        YuvDecoder.await(futures);
+    }
+
+    /**
+     * スレッドを停止する
+     */
+    public void shutdown(){
+        if(mExecutor != null){
+            mExecutor.shutdown();
+        }
+    }
+
+    private static void await(List<Future<Void>> futures){
+        boolean interrupted = false;
+        for(Future<Void> future : futures){
+            while(true){
+                try{
+                    future.get();
+                    break;
+                }catch(InterruptedException e){
+                    interrupted = true;
+                }catch(ExecutionException e){
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        }
+        if(interrupted){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void decodeRows(int format, int[] rgb, byte[] data, int width, int height, int startRow, int endRow){
+        if(format == FORMAT_YUY2){
+            YuvDecoder.decodeYuy2Rows(rgb, data, width, startRow, endRow);
+        }else{
+            YuvDecoder.decodeNv21Rows(rgb, data, width, height, startRow, endRow);
+        }
+    }
+
+    /**
+     * YUV420SP の [startRow, endRow) の行を変換する
+     *
+     * @param rgb
+     * @param yuv420sp
+     * @param width
+     * @param height
+     * @param startRow 偶数行
+     * @param endRow
+     */
+    private static void decodeNv21Rows(int[] rgb, byte[] yuv420sp, int width, int height, int startRow, int endRow){
+        final int frameSize = width * height;
+        final int[] yTable = Y_TABLE;
+        final int[] clampR = CLAMP_R;
+        final int[] clampG = CLAMP_G;
+        final int[] clampB = CLAMP_B;
+        for(int j = startRow, yp = startRow * width; j < endRow; j++){
+            int uvp = frameSize + (j >> 1) * width;
+            int vr = 0, vug = 0, ub = 0;
+            for(int i = 0; i < width; i++, yp++){
+                if((i & 1) == 0){
+                    int v = 0xff & yuv420sp[uvp++];
+                    int u = 0xff & yuv420sp[uvp++];
+                    vr = V_R_TABLE[v];
+                    vug = V_G_TABLE[v] + U_G_TABLE[u];
+                    ub = U_B_TABLE[u];
+                }
+                int y1192 = yTable[0xff & yuv420sp[yp]];
+                rgb[yp] = 0xff000000
+                    | clampR[((y1192 + vr) >> 10) + CLAMP_OFFSET]
+                    | clampG[((y1192 - vug) >> 10) + CLAMP_OFFSET]
+                    | clampB[((y1192 + ub) >> 10) + CLAMP_OFFSET];
+            }
+        }
+    }
+
+    /**
+     * YUY2 の [startRow, endRow) の行を変換する<br>
+     * 2画素ごとに Y0 U Y1 V の4バイトで並んでいる。
+     *
+     * @param rgb
+     * @param yuy2
+     * @param width
+     * @param startRow
+     * @param endRow
+     */
+    private static void decodeYuy2Rows(int[] rgb, byte[] yuy2, int width, int startRow, int endRow){
+        final int[] yTable = Y_TABLE;
+        final int[] clampR = CLAMP_R;
+        final int[] clampG = CLAMP_G;
+        final int[] clampB = CLAMP_B;
+        final int stride = ((width + 1) >> 1) << 2;
+        for(int j = startRow; j < endRow; j++){
+            int yp = j * width;
+            int p = j * stride;
+            for(int i = 0; i < width; i += 2, p += 4){
+                int u = 0xff & yuy2[p + 1];
+                int v = 0xff & yuy2[p + 3];
+                int vr = V_R_TABLE[v];
+                int vug = V_G_TABLE[v] + U_G_TABLE[u];
+                int ub = U_B_TABLE[u];
+                int y1192 = yTable[0xff & yuy2[p]];
+                rgb[yp++] = 0xff000000
+                    | clampR[((y1192 + vr) >> 10) + CLAMP_OFFSET]
+                    | clampG[((y1192 - vug) >> 10) + CLAMP_OFFSET]
+                    | clampB[((y1192 + ub) >> 10) + CLAMP_OFFSET];
+                if(i + 1 < width){
+                    y1192 = yTable[0xff & yuy2[p + 2]];
+                    rgb[yp++] = 0xff000000
+                        | clampR[((y1192 + vr) >> 10) + CLAMP_OFFSET]
+                        | clampG[((y1192 - vug) >> 10) + CLAMP_OFFSET]
+                        | clampB[((y1192 + ub) >> 10) + CLAMP_OFFSET];
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.io;
+
+import at.wada811.io.FileDigester.Algorithm;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ファイルのハッシュ値のキャッシュ<br>
+ * パス、サイズ、更新日時が変わっていないファイルは読み込まずにキャッシュしたハッシュ値を返す。<br>
+ * エントリ数の上限を超えると最も長く参照されていないものから追い出す。
+ */
+public class DigestCache {
+
+    private static final class Key {
+
+        private final String mPath;
+        private final long mLength;
+        private final long mLastModified;
+        private final Algorithm mAlgorithm;
+
+        private Key(File file, Algorithm algorithm) {
+            mPath = file.getAbsolutePath();
+            mLength = file.length();
+            mLastModified = file.lastModified();
+            mAlgorithm = algorithm;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(this == o){
+                return true;
+            }
+            if(!(o instanceof Key)){
+                return false;
+            }
+            Key key = (Key)o;
+            return mLength == key.mLength && mLastModified == key.mLastModified && mAlgorithm == key.mAlgorithm && mPath.equals(key.mPath);
+        }
+
+        @Override
+        public int hashCode(){
+            int result = mPath.hashCode();
+            result = 31 * result + (int)(mLength ^ (mLength >>> 32));
+            result = 31 * result + (int)(mLastModified ^ (mLastModified >>> 32));
+            result = 31 * result + mAlgorithm.hashCode();
+            return result;
+        }
+    }
+
+    private final LinkedHashMap<Key, byte[]> mMap;
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * @param maxEntries キャッシュするハッシュ値の数の上限
+     */
+    public DigestCache(final int maxEntries) {
+        if(maxEntries <= 0){
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        mMap = new LinkedHashMap<Key, byte[]>(0, 0.75f, true){
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, byte[]> eldest){
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * キャッシュにあればそれを、無ければ計算してキャッシュしたハッシュ値を返す
+     *
+     * @param digester
+     * @param file
+     * @return digest (書き換えないこと)
+     * @throws IOException
+     */
+    public byte[] digest(FileDigester digester, File file) throws IOException{
+        Key key = new Key(file, digester.getAlgorithm());
+        synchronized(this){
+            byte[] digest = mMap.get(key);
+            if(digest != null){
+                mHitCount++;
+                return digest;
+            }
+            mMissCount++;
+        }
+        // 読み込み中はロックしない
+        byte[] digest = digester.digest(file);
+        if(new Key(file, digester.getAlgorithm()).equals(key)){
+            // 読み込み中に書き換えられていなければキャッシュする
+            synchronized(this){
+                mMap.put(key, digest);
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * ファイルのハッシュ値をキャッシュから削除する
+     *
+     * @param file
+     */
+    public synchronized void remove(File file){
+        String path = file.getAbsolutePath();
+        for(Iterator<Key> iterator = mMap.keySet().iterator(); iterator.hasNext();){
+            if(iterator.next().mPath.equals(path)){
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear(){
+        mMap.clear();
+    }
+
+    public synchronized int size(){
+        return mMap.size();
+    }
+
+    public synchronized int hitCount(){
+        return mHitCount;
+    }
+
+    public synchronized int missCount(){
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return DigestCache.class.getSimpleName() + "[size=" + mMap.size() + ", hit=" + mHitCount + ", miss=" + mMissCount + "]";
+    }
+
+}
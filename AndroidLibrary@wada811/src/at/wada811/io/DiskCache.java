@@ -0,0 +1,656 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.io;
+
+import android.content.Context;
+import at.wada811.utils.CloseableUtils;
+import at.wada811.utils.LogUtils;
+import at.wada811.utils.MediaUtils;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * バイト数の上限を持つ LRU のディスクキャッシュ<br>
+ * キーのハッシュ値をファイル名にして1エントリを1ファイルに保存し、操作を追記型のジャーナルに記録する。<br>
+ * 書き込みは一時ファイルに行い、コミット時に名前を変更するので、読み込み中のエントリが壊れることはない。<br>
+ * 開くときにジャーナルを読み直し、書き込み途中で終了したエントリや不整合なファイルを削除する。<br>
+ * 上限を超えた場合と、ストレージの空き容量が少なくなった場合に最も長く参照されていないエントリから削除する。
+ *
+ * <pre>
+ * DiskCache cache = DiskCache.open(DiskCache.getCacheDirectory(context, "thumbnails"), 1, 50 * 1024 * 1024, 10 * 1024);
+ * DiskCache.Editor editor = cache.edit(url);
+ * if(editor != null){
+ *     OutputStream os = editor.newOutputStream();
+ *     download(url, os);
+ *     editor.commit();
+ * }
+ * InputStream is = cache.get(url);
+ * </pre>
+ */
+public class DiskCache implements Closeable {
+
+    static final String JOURNAL_FILE = "journal";
+    static final String JOURNAL_TEMP_FILE = "journal.tmp";
+    static final String MAGIC = DiskCache.class.getName();
+    static final String VERSION = "1";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String CLEAN = "CLEAN";
+    private static final String DIRTY = "DIRTY";
+    private static final String REMOVE = "REMOVE";
+    private static final String READ = "READ";
+    /** ジャーナルを作り直す不要な行数 */
+    private static final int REDUNDANT_OP_COMPACT_THRESHOLD = 2000;
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * エントリへの書き込み<br>
+     * 1つのエントリに同時に1つしか存在しない。必ず {@link #commit()} か {@link #abort()} を呼ぶこと。
+     */
+    public final class Editor {
+
+        private final Entry mEntry;
+        private OutputStream mOutputStream;
+        private boolean mIsDone;
+
+        private Editor(Entry entry) {
+            mEntry = entry;
+        }
+
+        /**
+         * 書き込み用のストリームを開く<br>
+         * 前に開いたストリームは閉じて、最初から書き直す。
+         *
+         * @return バッファリングしないので、細かく書き込む場合は BufferedOutputStream で包むこと
+         * @throws IOException
+         */
+        public OutputStream newOutputStream() throws IOException{
+            synchronized(DiskCache.this){
+                if(mIsDone){
+                    throw new IllegalStateException("editor is already committed or aborted");
+                }
+                CloseableUtils.closeQuietly(mOutputStream);
+                mOutputStream = new FileOutputStream(mEntry.getTempFile());
+                return mOutputStream;
+            }
+        }
+
+        /**
+         * 書き込んだ内容をエントリとして読めるようにする<br>
+         * 開いたストリームはここで閉じる。
+         *
+         * @throws IOException
+         */
+        public void commit() throws IOException{
+            completeEdit(this, true);
+        }
+
+        /**
+         * 書き込んだ内容を破棄する
+         */
+        public void abort(){
+            try{
+                completeEdit(this, false);
+            }catch(IOException e){
+                LogUtils.e(e);
+            }
+        }
+    }
+
+    private final class Entry {
+
+        private final String mName;
+        private long mLength;
+        /** 一度でもコミットされたかどうか */
+        private boolean mIsReadable;
+        private Editor mEditor;
+
+        private Entry(String name) {
+            mName = name;
+        }
+
+        private File getFile(){
+            return new File(mDirectory, mName);
+        }
+
+        private File getTempFile(){
+            return new File(mDirectory, mName + TEMP_SUFFIX);
+        }
+    }
+
+    private final File mDirectory;
+    private final File mJournalFile;
+    private final int mAppVersion;
+    private final long mMaxBytes;
+    private final double mMinimumFreeSpace;
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(0, 0.75f, true);
+    private Writer mJournalWriter;
+    private long mBytes;
+    private int mRedundantOpCount;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    private DiskCache(File directory, int appVersion, long maxBytes, double minimumFreeSpace) {
+        mDirectory = directory;
+        mJournalFile = new File(directory, JOURNAL_FILE);
+        mAppVersion = appVersion;
+        mMaxBytes = maxBytes;
+        mMinimumFreeSpace = minimumFreeSpace;
+    }
+
+    /**
+     * アプリ専用のキャッシュディレクトリの下のディレクトリを取得する<br>
+     * SDカードがマウントされていれば SDカードのアプリ専用のキャッシュディレクトリを使う。
+     *
+     * @param context
+     * @param dirName
+     * @return directory
+     */
+    public static File getCacheDirectory(Context context, String dirName){
+        File cacheDir = MediaUtils.isSdCardMounted() ? context.getExternalCacheDir() : null;
+        if(cacheDir == null){
+            cacheDir = context.getCacheDir();
+        }
+        return new File(cacheDir, dirName);
+    }
+
+    /**
+     * キャッシュを開く<br>
+     * ジャーナルが壊れている場合や appVersion が変わった場合はキャッシュのファイルを削除して作り直す (他のファイルは削除しない)。<br>
+     * 同じディレクトリを複数のインスタンスで開いてはいけない。
+     *
+     * @param directory キャッシュ専用のディレクトリ
+     * @param appVersion 保存する内容の形式を変えた場合に変える
+     * @param maxBytes エントリの合計バイト数の上限
+     * @param minimumFreeSpace {@link MediaUtils#isAvailableSpace(File, double)} に渡す空き容量の下限
+     * @return cache
+     * @throws IOException
+     */
+    public static DiskCache open(File directory, int appVersion, long maxBytes, double minimumFreeSpace) throws IOException{
+        if(maxBytes <= 0){
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        if(!directory.isDirectory() && !directory.mkdirs()){
+            throw new IOException("Can't create " + directory);
+        }
+        DiskCache cache = new DiskCache(directory, appVersion, maxBytes, minimumFreeSpace);
+        // 作り直しの途中で終了した場合は元のジャーナルが残っている
+        new File(directory, JOURNAL_TEMP_FILE).delete();
+        boolean needsRebuild = true;
+        if(cache.mJournalFile.exists()){
+            try{
+                needsRebuild = cache.readJournal();
+            }catch(IOException e){
+                LogUtils.e("DiskCache journal is corrupt, clearing " + directory, e);
+                cache.mEntries.clear();
+            }
+        }
+        needsRebuild |= cache.recover();
+        if(needsRebuild || cache.isCompactionRequired()){
+            cache.rebuildJournal();
+        }else{
+            cache.mJournalWriter = DiskCache.newJournalWriter(cache.mJournalFile, true);
+        }
+        cache.trimToSize();
+        return cache;
+    }
+
+    /**
+     * ジャーナルを読み込んでエントリを復元する
+     *
+     * @return 途中で壊れていてジャーナルを作り直す必要がある場合は true
+     * @throws IOException ヘッダが一致しない場合
+     */
+    private boolean readJournal() throws IOException{
+        RecordReader reader = new RecordReader(new FileInputStream(mJournalFile), US_ASCII, RecordReader.LINE_DELIMITER);
+        try{
+            String magic = reader.readRecord();
+            String version = reader.readRecord();
+            String appVersion = reader.readRecord();
+            String blank = reader.readRecord();
+            if(!MAGIC.equals(magic) || !VERSION.equals(version) || !String.valueOf(mAppVersion).equals(appVersion) || !"".equals(blank)){
+                throw new IOException("unexpected journal header: [" + magic + ", " + version + ", " + appVersion + ", " + blank + "]");
+            }
+            int lineCount = 0;
+            String line;
+            while((line = reader.readRecord()) != null){
+                if(!readJournalLine(line)){
+                    // 書き込み途中で終了した行以降は捨てる
+                    LogUtils.w("DiskCache ignores journal after: " + line);
+                    return true;
+                }
+                lineCount++;
+            }
+            mRedundantOpCount = lineCount - mEntries.size();
+            return false;
+        }finally{
+            reader.close();
+        }
+    }
+
+    private boolean readJournalLine(String line){
+        String[] parts = line.split(" ");
+        if(parts.length < 2 || !DiskCache.isValidName(parts[1])){
+            return false;
+        }
+        String op = parts[0];
+        String name = parts[1];
+        if(REMOVE.equals(op) && parts.length == 2){
+            mEntries.remove(name);
+            return true;
+        }
+        if(READ.equals(op) && parts.length == 2){
+            // アクセス順を更新する
+            mEntries.get(name);
+            return true;
+        }
+        Entry entry = mEntries.get(name);
+        if(entry == null){
+            entry = new Entry(name);
+            mEntries.put(name, entry);
+        }
+        if(DIRTY.equals(op) && parts.length == 2){
+            entry.mEditor = new Editor(entry);
+            return true;
+        }
+        if(CLEAN.equals(op) && parts.length == 3){
+            try{
+                entry.mLength = Long.parseLong(parts[2]);
+            }catch(NumberFormatException e){
+                return false;
+            }
+            entry.mIsReadable = true;
+            entry.mEditor = null;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 書き込み途中のエントリ、ファイルが無いか長さが違うエントリ、ジャーナルに無いファイルを削除する
+     *
+     * @return 削除したエントリがある場合は true
+     */
+    private boolean recover(){
+        boolean changed = false;
+        mBytes = 0;
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while(iterator.hasNext()){
+            Entry entry = iterator.next();
+            if(entry.mEditor != null || !entry.mIsReadable || entry.getFile().length() != entry.mLength){
+                entry.getTempFile().delete();
+                entry.getFile().delete();
+                iterator.remove();
+                changed = true;
+            }else{
+                mBytes += entry.mLength;
+            }
+        }
+        // 他のファイルを消さないように、このキャッシュが作る名前のファイルだけを削除する
+        File[] files = mDirectory.listFiles();
+        if(files != null){
+            for(File file : files){
+                String name = file.getName();
+                if(!file.isFile()){
+                    continue;
+                }
+                if(DiskCache.isTempName(name) || (DiskCache.isValidName(name) && !mEntries.containsKey(name))){
+                    file.delete();
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 現在のエントリだけを書いたジャーナルを作り、置き換える
+     */
+    private synchronized void rebuildJournal() throws IOException{
+        if(mJournalWriter != null){
+            mJournalWriter.close();
+        }
+        File tempFile = new File(mDirectory, JOURNAL_TEMP_FILE);
+        Writer writer = DiskCache.newJournalWriter(tempFile, false);
+        try{
+            writer.write(MAGIC + "\n" + VERSION + "\n" + mAppVersion + "\n\n");
+            for(Entry entry : mEntries.values()){
+                if(entry.mEditor != null){
+                    writer.write(DIRTY + " " + entry.mName + "\n");
+                }else{
+                    writer.write(CLEAN + " " + entry.mName + " " + entry.mLength + "\n");
+                }
+            }
+        }finally{
+            writer.close();
+        }
+        if(!tempFile.renameTo(mJournalFile)){
+            throw new IOException("Can't rename " + tempFile + " to " + mJournalFile);
+        }
+        mJournalWriter = DiskCache.newJournalWriter(mJournalFile, true);
+        mRedundantOpCount = 0;
+    }
+
+    private static Writer newJournalWriter(File file, boolean append) throws FileNotFoundException{
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, append), US_ASCII));
+    }
+
+    /**
+     * エントリを読み込むストリームを取得する<br>
+     * 読み込み中に同じキーが書き換えられたり削除されても、読み込んでいる内容は変わらない。
+     *
+     * @param key
+     * @return キャッシュに無い場合は null
+     * @throws IOException
+     */
+    public synchronized InputStream get(String key) throws IOException{
+        checkNotClosed();
+        Entry entry = mEntries.get(DiskCache.toName(key));
+        if(entry == null || !entry.mIsReadable){
+            mMissCount++;
+            return null;
+        }
+        InputStream is;
+        try{
+            is = new FileInputStream(entry.getFile());
+        }catch(FileNotFoundException e){
+            // 外部で削除された
+            removeEntry(entry);
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        mRedundantOpCount++;
+        mJournalWriter.write(READ + " " + entry.mName + "\n");
+        compactIfRequired();
+        return is;
+    }
+
+    /**
+     * キャッシュにあるかどうか (参照順は更新しない)
+     *
+     * @param key
+     * @return contains
+     */
+    public synchronized boolean contains(String key){
+        Entry entry = mEntries.get(DiskCache.toName(key));
+        return entry != null && entry.mIsReadable;
+    }
+
+    /**
+     * エントリの書き込みを開始する
+     *
+     * @param key
+     * @return 同じキーを書き込み中の場合は null
+     * @throws IOException
+     */
+    public synchronized Editor edit(String key) throws IOException{
+        checkNotClosed();
+        String name = DiskCache.toName(key);
+        Entry entry = mEntries.get(name);
+        if(entry == null){
+            entry = new Entry(name);
+            mEntries.put(name, entry);
+        }else if(entry.mEditor != null){
+            return null;
+        }
+        Editor editor = new Editor(entry);
+        entry.mEditor = editor;
+        // ファイルを作る前に記録しておき、途中で終了した場合は開くときに削除する
+        mJournalWriter.write(DIRTY + " " + name + "\n");
+        mJournalWriter.flush();
+        return editor;
+    }
+
+    private synchronized void completeEdit(Editor editor, boolean success) throws IOException{
+        if(editor.mIsDone){
+            throw new IllegalStateException("editor is already committed or aborted");
+        }
+        editor.mIsDone = true;
+        CloseableUtils.closeQuietly(editor.mOutputStream);
+        Entry entry = editor.mEntry;
+        entry.mEditor = null;
+        File tempFile = entry.getTempFile();
+        if(mJournalWriter == null){
+            // 閉じた後のコミットは破棄する
+            tempFile.delete();
+            throw new IllegalStateException("cache is closed");
+        }
+        boolean committed = false;
+        if(success){
+            if(!tempFile.exists()){
+                tempFile.delete();
+                throw new IllegalStateException("newOutputStream() was not called");
+            }
+            long length = tempFile.length();
+            if(tempFile.renameTo(entry.getFile())){
+                mBytes += length - entry.mLength;
+                entry.mLength = length;
+                entry.mIsReadable = true;
+                committed = true;
+            }else{
+                LogUtils.e("Can't rename " + tempFile);
+            }
+        }
+        tempFile.delete();
+        mRedundantOpCount++;
+        if(committed){
+            mJournalWriter.write(CLEAN + " " + entry.mName + " " + entry.mLength + "\n");
+        }else if(entry.mIsReadable){
+            // 書き換えを中止したので前の内容のまま
+            mJournalWriter.write(CLEAN + " " + entry.mName + " " + entry.mLength + "\n");
+        }else{
+            mEntries.remove(entry.mName);
+            mJournalWriter.write(REMOVE + " " + entry.mName + "\n");
+        }
+        mJournalWriter.flush();
+        trimToSize();
+        compactIfRequired();
+        if(success && !committed){
+            throw new IOException("Can't commit " + entry.mName);
+        }
+    }
+
+    /**
+     * エントリを削除する
+     *
+     * @param key
+     * @return 削除した場合は true、無い場合か書き込み中の場合は false
+     * @throws IOException
+     */
+    public synchronized boolean remove(String key) throws IOException{
+        checkNotClosed();
+        Entry entry = mEntries.get(DiskCache.toName(key));
+        if(entry == null || entry.mEditor != null){
+            return false;
+        }
+        removeEntry(entry);
+        compactIfRequired();
+        return true;
+    }
+
+    private void removeEntry(Entry entry) throws IOException{
+        File file = entry.getFile();
+        if(file.exists() && !file.delete()){
+            throw new IOException("Can't delete " + file);
+        }
+        mBytes -= entry.mLength;
+        mEntries.remove(entry.mName);
+        mRedundantOpCount++;
+        mJournalWriter.write(REMOVE + " " + entry.mName + "\n");
+        mJournalWriter.flush();
+    }
+
+    /**
+     * 上限を超えているか空き容量が少ない間、最も長く参照されていないエントリから削除する
+     */
+    private void trimToSize() throws IOException{
+        List<Entry> evicted = new ArrayList<Entry>();
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        long bytes = mBytes;
+        while(iterator.hasNext() && (bytes > mMaxBytes || !MediaUtils.isAvailableSpace(mDirectory, mMinimumFreeSpace))){
+            Entry entry = iterator.next().getValue();
+            if(entry.mEditor != null || !entry.mIsReadable){
+                continue;
+            }
+            // 空き容量は削除しないと変わらないので1つずつ削除してから確認する
+            bytes -= entry.mLength;
+            entry.getFile().delete();
+            evicted.add(entry);
+        }
+        for(Entry entry : evicted){
+            removeEntry(entry);
+            mEvictionCount++;
+        }
+    }
+
+    private boolean isCompactionRequired(){
+        return mRedundantOpCount >= REDUNDANT_OP_COMPACT_THRESHOLD && mRedundantOpCount >= mEntries.size();
+    }
+
+    private void compactIfRequired() throws IOException{
+        if(isCompactionRequired()){
+            rebuildJournal();
+        }
+    }
+
+    /**
+     * ジャーナルをファイルに書き込む
+     *
+     * @throws IOException
+     */
+    public synchronized void flush() throws IOException{
+        checkNotClosed();
+        trimToSize();
+        mJournalWriter.flush();
+    }
+
+    /**
+     * キャッシュを閉じる<br>
+     * 書き込み中のエントリは次に開いたときに削除される。
+     */
+    @Override
+    public synchronized void close() throws IOException{
+        if(mJournalWriter == null){
+            return;
+        }
+        mJournalWriter.close();
+        mJournalWriter = null;
+    }
+
+    /**
+     * キャッシュを閉じて、エントリとジャーナルを削除する<br>
+     * ディレクトリは他のファイルが無ければ削除する。
+     *
+     * @throws IOException
+     */
+    public synchronized void delete() throws IOException{
+        close();
+        File[] files = mDirectory.listFiles();
+        if(files != null){
+            for(File file : files){
+                String name = file.getName();
+                if(file.isFile() && (JOURNAL_FILE.equals(name) || JOURNAL_TEMP_FILE.equals(name) || DiskCache.isValidName(name) || DiskCache.isTempName(name))){
+                    file.delete();
+                }
+            }
+        }
+        mDirectory.delete();
+    }
+
+    private void checkNotClosed(){
+        if(mJournalWriter == null){
+            throw new IllegalStateException("cache is closed");
+        }
+    }
+
+    /**
+     * エントリの合計バイト数
+     */
+    public synchronized long size(){
+        return mBytes;
+    }
+
+    public long maxSize(){
+        return mMaxBytes;
+    }
+
+    public File getDirectory(){
+        return mDirectory;
+    }
+
+    public synchronized int hitCount(){
+        return mHitCount;
+    }
+
+    public synchronized int missCount(){
+        return mMissCount;
+    }
+
+    public synchronized int evictionCount(){
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return DiskCache.class.getSimpleName() + "[" + mDirectory + ", size=" + mBytes + ", maxSize=" + mMaxBytes + ", entries=" + mEntries.size() + ", hit=" + mHitCount + ", miss="
+            + mMissCount + ", eviction=" + mEvictionCount + "]";
+    }
+
+    /**
+     * キーの SHA-1 をファイル名にする
+     */
+    private static String toName(String key){
+        return FileDigester.toHex(FileDigester.getDefault(FileDigester.Algorithm.SHA_1).digest(key.getBytes(UTF_8)));
+    }
+
+    private static boolean isValidName(String name){
+        if(name.length() != 40){
+            return false;
+        }
+        for(int i = 0; i < name.length(); i++){
+            char c = name.charAt(i);
+            if(!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return エントリの書き込み中の一時ファイルの名前の場合は true
+     */
+    private static boolean isTempName(String name){
+        return name.endsWith(TEMP_SUFFIX) && DiskCache.isValidName(name.substring(0, name.length() - TEMP_SUFFIX.length()));
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * ファイルの内容をまとめて読み込むリーダー<br>
+ * ファイルサイズからバッファを確保して1回で読み込み、CharsetDecoder を使い回してデコードする。<br>
+ * 大きいファイルはメモリマップして読み込む。改行コードは変換しない。<br>
+ * CharsetDecoder を使い回すのでスレッドセーフではない。スレッドごとに {@link #getDefault()} を使うこと。
+ */
+public class FileContentReader {
+
+    /** これ以上のサイズのファイルはメモリマップする */
+    public static final int DEFAULT_MAP_THRESHOLD = 1024 * 1024;
+    private static final int DEFAULT_STREAM_BUFFER_SIZE = 8 * 1024;
+
+    private static final ThreadLocal<FileContentReader> sDefault = new ThreadLocal<FileContentReader>(){
+        @Override
+        protected FileContentReader initialValue(){
+            return new FileContentReader();
+        }
+    };
+
+    private final CharsetDecoder mDecoder;
+    private final int mMapThreshold;
+
+    /**
+     * デフォルトの文字コードで読み込むリーダーを生成する
+     */
+    public FileContentReader() {
+        this(Charset.defaultCharset(), DEFAULT_MAP_THRESHOLD);
+    }
+
+    /**
+     * @param charset
+     * @param mapThreshold これ以上のサイズのファイルはメモリマップする
+     */
+    public FileContentReader(Charset charset, int mapThreshold) {
+        // InputStreamReader と同じく不正なバイト列は置換する
+        mDecoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        mMapThreshold = mapThreshold;
+    }
+
+    /**
+     * 現在のスレッド用のデフォルトの文字コードのリーダーを取得する
+     */
+    public static FileContentReader getDefault(){
+        return sDefault.get();
+    }
+
+    /**
+     * ファイルの内容を byte[] で読み込む
+     *
+     * @param file
+     * @return bytes
+     * @throws IOException
+     */
+    public byte[] readBytes(File file) throws IOException{
+        FileInputStream fis = new FileInputStream(file);
+        try{
+            FileChannel channel = fis.getChannel();
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE){
+                throw new IOException("File is too large: " + file + " (" + size + " bytes)");
+            }
+            byte[] bytes = new byte[(int)size];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while(buffer.hasRemaining()){
+                if(channel.read(buffer) < 0){
+                    // 読み込み中に小さくなった
+                    byte[] truncated = new byte[buffer.position()];
+                    System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+                    return truncated;
+                }
+            }
+            return bytes;
+        }finally{
+            fis.close();
+        }
+    }
+
+    /**
+     * ファイルの内容を読み込み専用でメモリマップする<br>
+     * ファイルを閉じてもマップは有効。
+     *
+     * @param file
+     * @return mapped buffer
+     * @throws IOException
+     */
+    public static ByteBuffer map(File file) throws IOException{
+        FileInputStream fis = new FileInputStream(file);
+        try{
+            FileChannel channel = fis.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }finally{
+            fis.close();
+        }
+    }
+
+    /**
+     * ファイルの内容を文字列にせずに CharBuffer で読み込む
+     *
+     * @param file
+     * @return chars
+     * @throws IOException
+     */
+    public CharBuffer readChars(File file) throws IOException{
+        if(file.length() >= mMapThreshold){
+            return decode(FileContentReader.map(file));
+        }
+        return decode(ByteBuffer.wrap(readBytes(file)));
+    }
+
+    /**
+     * ストリームの内容を最後まで CharBuffer で読み込む (ストリームは閉じない)
+     *
+     * @param is
+     * @return chars
+     * @throws IOException
+     */
+    public CharBuffer readChars(InputStream is) throws IOException{
+        return decode(FileContentReader.readFully(is));
+    }
+
+    /**
+     * ファイルの内容を文字列で読み込む
+     *
+     * @param file
+     * @return string
+     * @throws IOException
+     */
+    public String readString(File file) throws IOException{
+        return readChars(file).toString();
+    }
+
+    /**
+     * ストリームの内容を最後まで文字列で読み込む (ストリームは閉じない)
+     *
+     * @param is
+     * @return string
+     * @throws IOException
+     */
+    public String readString(InputStream is) throws IOException{
+        return readChars(is).toString();
+    }
+
+    /**
+     * バイト列をデコードする
+     *
+     * @param bytes
+     * @return chars
+     * @throws CharacterCodingException
+     */
+    public CharBuffer decode(ByteBuffer bytes) throws CharacterCodingException{
+        mDecoder.reset();
+        CharBuffer chars = CharBuffer.allocate((int)Math.min((long)(bytes.remaining() * (double)mDecoder.averageCharsPerByte()) + 16, Integer.MAX_VALUE));
+        while(true){
+            CoderResult result = bytes.hasRemaining() ? mDecoder.decode(bytes, chars, true) : CoderResult.UNDERFLOW;
+            if(result.isUnderflow()){
+                result = mDecoder.flush(chars);
+            }
+            if(result.isUnderflow()){
+                break;
+            }
+            if(result.isOverflow()){
+                chars = grow(chars, bytes.remaining());
+            }else{
+                result.throwException();
+            }
+        }
+        chars.flip();
+        return chars;
+    }
+
+    private CharBuffer grow(CharBuffer chars, int remainingBytes){
+        int capacity = chars.capacity() + Math.max((int)(remainingBytes * (double)mDecoder.maxCharsPerByte()), 16);
+        CharBuffer grown = CharBuffer.allocate(capacity);
+        chars.flip();
+        grown.put(chars);
+        return grown;
+    }
+
+    private static ByteBuffer readFully(InputStream is) throws IOException{
+        // assets と raw リソースは available() でサイズが分かる
+        byte[] buffer = new byte[Math.max(is.available(), DEFAULT_STREAM_BUFFER_SIZE)];
+        int length = 0;
+        while(true){
+            if(length == buffer.length){
+                byte[] grown = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, grown, 0, length);
+                buffer = grown;
+            }
+            int count = is.read(buffer, length, buffer.length - length);
+            if(count < 0){
+                break;
+            }
+            length += count;
+        }
+        return ByteBuffer.wrap(buffer, 0, length);
+    }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * ファイルやストリームのハッシュ値をストリーミングで計算する<br>
+ * 読み込み用のバッファとダイジェストを使い回すのでスレッドセーフではない。スレッドごとに {@link #getDefault(Algorithm)} を使うこと。
+ */
+public class FileDigester {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * ハッシュ関数
+     */
+    public static enum Algorithm {
+        MD5("MD5", 16),
+        SHA_1("SHA-1", 20),
+        SHA_256("SHA-256", 32),
+        /** 4バイトのビッグエンディアンで返す */
+        CRC32(null, 4);
+
+        /** MessageDigest のアルゴリズム名 */
+        public final String name;
+        /** ハッシュ値のバイト数 */
+        public final int length;
+
+        private Algorithm(String name, int length) {
+            this.name = name;
+            this.length = length;
+        }
+    }
+
+    private static final ThreadLocal<FileDigester[]> sDefault = new ThreadLocal<FileDigester[]>(){
+        @Override
+        protected FileDigester[] initialValue(){
+            return new FileDigester[Algorithm.values().length];
+        }
+    };
+
+    private final Algorithm mAlgorithm;
+    private final MessageDigest mDigest;
+    private final CRC32 mCrc32;
+    private final ByteBuffer mBuffer;
+
+    /**
+     * @param algorithm
+     * @param bufferSize 1回に読み込むバイト数
+     */
+    public FileDigester(Algorithm algorithm, int bufferSize) {
+        if(bufferSize < 1){
+            throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        }
+        mAlgorithm = algorithm;
+        if(algorithm == Algorithm.CRC32){
+            mDigest = null;
+            mCrc32 = new CRC32();
+        }else{
+            try{
+                mDigest = MessageDigest.getInstance(algorithm.name);
+            }catch(NoSuchAlgorithmException e){
+                throw new IllegalArgumentException(algorithm.name, e);
+            }
+            mCrc32 = null;
+        }
+        // CRC32 と MessageDigest に配列のまま渡せるようにヒープのバッファを使う
+        mBuffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    /**
+     * 現在のスレッド用のインスタンスを取得する
+     *
+     * @param algorithm
+     * @return digester
+     */
+    public static FileDigester getDefault(Algorithm algorithm){
+        FileDigester[] digesters = sDefault.get();
+        FileDigester digester = digesters[algorithm.ordinal()];
+        if(digester == null){
+            digester = new FileDigester(algorithm, DEFAULT_BUFFER_SIZE);
+            digesters[algorithm.ordinal()] = digester;
+        }
+        return digester;
+    }
+
+    public Algorithm getAlgorithm(){
+        return mAlgorithm;
+    }
+
+    /**
+     * ファイルのハッシュ値を計算する
+     *
+     * @param file
+     * @return digest
+     * @throws IOException
+     */
+    public byte[] digest(File file) throws IOException{
+        FileInputStream fis = new FileInputStream(file);
+        try{
+            return digest(fis.getChannel());
+        }finally{
+            fis.close();
+        }
+    }
+
+    /**
+     * ストリームの最後までのハッシュ値を計算する (ストリームは閉じない)
+     *
+     * @param is
+     * @return digest
+     * @throws IOException
+     */
+    public byte[] digest(InputStream is) throws IOException{
+        if(is instanceof FileInputStream){
+            return digest(((FileInputStream)is).getChannel());
+        }
+        return digest(Channels.newChannel(is));
+    }
+
+    /**
+     * チャネルの現在位置から最後までのハッシュ値を計算する (チャネルは閉じない)
+     *
+     * @param channel
+     * @return digest
+     * @throws IOException
+     */
+    public byte[] digest(FileChannel channel) throws IOException{
+        return digest((ReadableByteChannel)channel);
+    }
+
+    private byte[] digest(ReadableByteChannel channel) throws IOException{
+        reset();
+        while(true){
+            mBuffer.clear();
+            int count = channel.read(mBuffer);
+            if(count < 0){
+                break;
+            }
+            update(mBuffer.array(), mBuffer.arrayOffset(), mBuffer.position());
+        }
+        return finish();
+    }
+
+    /**
+     * バイト列のハッシュ値を計算する
+     *
+     * @param bytes
+     * @return digest
+     */
+    public byte[] digest(byte[] bytes){
+        reset();
+        update(bytes, 0, bytes.length);
+        return finish();
+    }
+
+    private void reset(){
+        if(mDigest != null){
+            mDigest.reset();
+        }else{
+            mCrc32.reset();
+        }
+    }
+
+    private void update(byte[] bytes, int offset, int length){
+        if(mDigest != null){
+            mDigest.update(bytes, offset, length);
+        }else{
+            mCrc32.update(bytes, offset, length);
+        }
+    }
+
+    private byte[] finish(){
+        if(mDigest != null){
+            return mDigest.digest();
+        }
+        long value = mCrc32.getValue();
+        return new byte[]{
+            (byte)(value >> 24), (byte)(value >> 16), (byte)(value >> 8), (byte)value
+        };
+    }
+
+    /**
+     * ハッシュ値を小文字の16進数の文字列にする
+     *
+     * @param digest
+     * @return hex
+     */
+    public static String toHex(byte[] digest){
+        char[] hex = new char[digest.length * 2];
+        for(int i = 0; i < digest.length; i++){
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX[digest[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+
+}
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.io;
+
+import android.os.Handler;
+import android.os.Looper;
+import at.wada811.utils.FileUtils;
+import at.wada811.utils.LogUtils;
+import at.wada811.utils.ThreadUtils;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.EventListener;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ディレクトリを中のファイルごと並列にコピーする<br>
+ * コピー元を走査してディレクトリを作成してから、ファイルを複数のスレッドでコピーする。<br>
+ * 進捗はメインスレッドで {@link OnCopyListener} に通知する。
+ *
+ * <pre>
+ * FileTreeCopier copier = new FileTreeCopier(4);
+ * FileTreeCopier.Task task = copier.copy(mediaDir, backupDir, listener);
+ * // 中止する場合
+ * task.cancel();
+ * </pre>
+ */
+public class FileTreeCopier {
+
+    /**
+     * 進捗をメインスレッドで通知するリスナー
+     */
+    public interface OnCopyListener extends EventListener {
+
+        /**
+         * 一定間隔で呼ばれる
+         *
+         * @param task
+         */
+        public void onProgress(Task task);
+
+        /**
+         * 全てコピーしたか、キャンセルしてコピー中のものが終わったときに呼ばれる
+         *
+         * @param task
+         */
+        public void onFinished(Task task);
+    }
+
+    /**
+     * 1回のコピー
+     */
+    public final class Task {
+
+        private final File mSrc;
+        private final File mDest;
+        private final OnCopyListener mListener;
+        private final AtomicLong mTotalBytes = new AtomicLong();
+        private final AtomicInteger mTotalFiles = new AtomicInteger();
+        private final AtomicLong mCopiedBytes = new AtomicLong();
+        private final AtomicInteger mCopiedFiles = new AtomicInteger();
+        private final AtomicInteger mFailedFiles = new AtomicInteger();
+        /** 投入済みで終わっていない数 */
+        private final AtomicInteger mRunningCount = new AtomicInteger();
+        private final AtomicLong mLastNotified = new AtomicLong();
+        private final AtomicBoolean mIsFinished = new AtomicBoolean();
+        private final CountDownLatch mFinishedLatch = new CountDownLatch(1);
+        private final long mStartedAt = System.nanoTime();
+        private volatile long mFinishedAt;
+        private volatile boolean mIsCancelled;
+        private volatile boolean mIsFed;
+        private volatile Thread mFeeder;
+
+        private Task(File src, File dest, OnCopyListener listener) {
+            mSrc = src;
+            mDest = dest;
+            mListener = listener;
+        }
+
+        /**
+         * コピーを中止する<br>
+         * コピー途中のファイルは削除する。
+         */
+        public void cancel(){
+            mIsCancelled = true;
+            Thread feeder = mFeeder;
+            if(feeder != null){
+                feeder.interrupt();
+            }
+        }
+
+        public boolean isCancelled(){
+            return mIsCancelled;
+        }
+
+        public boolean isFinished(){
+            return mIsFinished.get();
+        }
+
+        /**
+         * キャンセルされず全てのファイルをコピーできたかどうか
+         */
+        public boolean isSuccessful(){
+            return isFinished() && !mIsCancelled && mFailedFiles.get() == 0 && mCopiedFiles.get() == mTotalFiles.get();
+        }
+
+        /**
+         * コピーが終わるまで待つ (メインスレッドから呼んではいけない)
+         *
+         * @throws InterruptedException
+         */
+        public void await() throws InterruptedException{
+            mFinishedLatch.await();
+        }
+
+        /**
+         * コピーするバイト数の合計 (走査が終わるまでは途中の値)
+         */
+        public long getTotalBytes(){
+            return mTotalBytes.get();
+        }
+
+        /**
+         * コピーするファイル数 (走査が終わるまでは途中の値)
+         */
+        public int getTotalFiles(){
+            return mTotalFiles.get();
+        }
+
+        public long getCopiedBytes(){
+            return mCopiedBytes.get();
+        }
+
+        public int getCopiedFiles(){
+            return mCopiedFiles.get();
+        }
+
+        public int getFailedFiles(){
+            return mFailedFiles.get();
+        }
+
+        /**
+         * 開始してからの平均のバイト/秒
+         */
+        public double getBytesPerSecond(){
+            double seconds = getElapsedSeconds();
+            return seconds <= 0 ? 0 : mCopiedBytes.get() / seconds;
+        }
+
+        /**
+         * 開始してからの平均のファイル数/秒
+         */
+        public double getFilesPerSecond(){
+            double seconds = getElapsedSeconds();
+            return seconds <= 0 ? 0 : mCopiedFiles.get() / seconds;
+        }
+
+        private double getElapsedSeconds(){
+            long end = mIsFinished.get() ? mFinishedAt : System.nanoTime();
+            return (end - mStartedAt) / 1000000000.0;
+        }
+
+        private void addCopiedBytes(long bytes){
+            mCopiedBytes.addAndGet(bytes);
+            long now = System.nanoTime();
+            long last = mLastNotified.get();
+            if(now - last >= PROGRESS_INTERVAL_NANOS && mLastNotified.compareAndSet(last, now) && mListener != null){
+                mHandler.post(new Runnable(){
+                    @Override
+                    public void run(){
+                        mListener.onProgress(Task.this);
+                    }
+                });
+            }
+        }
+
+        private void onTaskFinished(){
+            if(mRunningCount.decrementAndGet() == 0 && mIsFed){
+                finish();
+            }
+        }
+
+        private void finish(){
+            if(!mIsFinished.compareAndSet(false, true)){
+                return;
+            }
+            mFinishedAt = System.nanoTime();
+            mFinishedLatch.countDown();
+            if(mListener != null){
+                mHandler.post(new Runnable(){
+                    @Override
+                    public void run(){
+                        mListener.onFinished(Task.this);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public String toString(){
+            return Task.class.getSimpleName() + "[" + mSrc + " -> " + mDest + ", files=" + mCopiedFiles.get() + "/" + mTotalFiles.get() + ", bytes=" + mCopiedBytes.get() + "/" + mTotalBytes.get()
+                + ", failed=" + mFailedFiles.get() + "]";
+        }
+    }
+
+    private static final long PROGRESS_INTERVAL_NANOS = 250 * 1000000L;
+    /** キャンセルを確認する間隔 */
+    private static final long CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private final ExecutorService mExecutor;
+    /** {@link #copy(File, File, OnCopyListener)} ごとにコピー元を走査して投入するスレッド */
+    private final ThreadFactory mFeederFactory = ThreadUtils.newBackgroundThreadFactory(FileTreeCopier.class.getSimpleName() + "#feeder");
+    /** 待ち行列に入れられる数 */
+    private final Semaphore mQueueSlots;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * @param threadCount 同時にコピーするファイル数
+     */
+    public FileTreeCopier(int threadCount) {
+        if(threadCount < 1){
+            throw new IllegalArgumentException("threadCount must be positive: " + threadCount);
+        }
+        mQueueSlots = new Semaphore(threadCount * 2);
+        mExecutor = Executors.newFixedThreadPool(threadCount, ThreadUtils.newBackgroundThreadFactory(FileTreeCopier.class.getSimpleName()));
+    }
+
+    /**
+     * コピーを開始する
+     *
+     * @param src コピー元のファイルかディレクトリ
+     * @param dest コピー先 (ディレクトリの場合は dest の中に src の中身をコピーする、src 自身や src の中は指定できない)
+     * @param listener
+     * @return task
+     */
+    public Task copy(File src, File dest, OnCopyListener listener){
+        final Task task = new Task(src, dest, listener);
+        Thread feeder = mFeederFactory.newThread(new Runnable(){
+            @Override
+            public void run(){
+                feed(task);
+            }
+        });
+        task.mFeeder = feeder;
+        feeder.start();
+        return task;
+    }
+
+    /**
+     * コピー元を走査してから、待ち行列に空きができるのを待ちながらファイルのコピーを投入する
+     */
+    private void feed(final Task task){
+        // 全て投入するまで終了させない
+        task.mRunningCount.incrementAndGet();
+        try{
+            if(FileUtils.contains(task.mSrc, task.mDest)){
+                // 自分自身の中にコピーすると走査が終わらない
+                LogUtils.e("Can't copy " + task.mSrc + " into itself: " + task.mDest);
+                task.mFailedFiles.incrementAndGet();
+                return;
+            }
+            List<File[]> files = new ArrayList<File[]>();
+            if(!walk(task, task.mSrc, task.mDest, files)){
+                return;
+            }
+            for(final File[] pair : files){
+                if(task.mIsCancelled){
+                    break;
+                }
+                mQueueSlots.acquire();
+                task.mRunningCount.incrementAndGet();
+                try{
+                    mExecutor.execute(new Runnable(){
+                        @Override
+                        public void run(){
+                            try{
+                                copyFile(task, pair[0], pair[1]);
+                            }finally{
+                                mQueueSlots.release();
+                                task.onTaskFinished();
+                            }
+                        }
+                    });
+                }catch(RejectedExecutionException e){
+                    // shutdown 済み
+                    mQueueSlots.release();
+                    task.mRunningCount.decrementAndGet();
+                    break;
+                }
+            }
+        }catch(InterruptedException e){
+            // キャンセル
+        }finally{
+            task.mIsFed = true;
+            task.onTaskFinished();
+        }
+    }
+
+    /**
+     * コピー先のディレクトリを作成しながらコピーするファイルを集める
+     *
+     * @return 中断した場合は false
+     */
+    private boolean walk(Task task, File src, File dest, List<File[]> files){
+        if(task.mIsCancelled){
+            return false;
+        }
+        if(src.isDirectory()){
+            if(!dest.isDirectory() && !dest.mkdirs()){
+                LogUtils.e("Can't create " + dest);
+                task.mFailedFiles.incrementAndGet();
+                return true;
+            }
+            File[] children = src.listFiles();
+            if(children == null){
+                LogUtils.e("Can't list " + src);
+                task.mFailedFiles.incrementAndGet();
+                return true;
+            }
+            for(File child : children){
+                if(!walk(task, child, new File(dest, child.getName()), files)){
+                    return false;
+                }
+            }
+        }else if(src.isFile()){
+            files.add(new File[]{
+                src, dest
+            });
+            task.mTotalFiles.incrementAndGet();
+            task.mTotalBytes.addAndGet(src.length());
+        }
+        return true;
+    }
+
+    private void copyFile(Task task, File src, File dest){
+        if(task.mIsCancelled){
+            return;
+        }
+        boolean created = false;
+        boolean completed = false;
+        try{
+            File parent = dest.getParentFile();
+            if(parent != null && !parent.isDirectory()){
+                parent.mkdirs();
+            }
+            FileInputStream fis = new FileInputStream(src);
+            try{
+                FileOutputStream fos = new FileOutputStream(dest);
+                created = true;
+                try{
+                    FileChannel srcChannel = fis.getChannel();
+                    FileChannel destChannel = fos.getChannel();
+                    long size = srcChannel.size();
+                    long position = 0;
+                    while(position < size){
+                        if(task.mIsCancelled){
+                            return;
+                        }
+                        long count = FileUtils.transfer(srcChannel, destChannel, position, Math.min(size - position, CHUNK_SIZE));
+                        if(count < 0){
+                            break;
+                        }
+                        position += count;
+                        task.addCopiedBytes(count);
+                    }
+                    completed = true;
+                }finally{
+                    fos.close();
+                }
+            }finally{
+                fis.close();
+            }
+        }catch(IOException e){
+            LogUtils.e(src.getAbsolutePath(), e);
+        }finally{
+            if(completed){
+                dest.setLastModified(src.lastModified());
+                task.mCopiedFiles.incrementAndGet();
+            }else{
+                if(created){
+                    // 途中までコピーしたファイルは残さない (開く前に失敗した場合は既存のファイルに触らない)
+                    dest.delete();
+                }
+                if(!task.mIsCancelled){
+                    task.mFailedFiles.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * スレッドを停止する (コピー中のファイルは最後までコピーする)
+     */
+    public void shutdown(){
+        mExecutor.shutdown();
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+/**
+ * Reader から読んだ1文字を1バイトとして返す InputStream<br>
+ * Base64 など ASCII だけの文字列をバイト列として読み込むために使う。
+ */
+public class ReaderInputStream extends InputStream {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final Reader mReader;
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+
+    /**
+     * @param reader
+     */
+    public ReaderInputStream(Reader reader) {
+        mReader = reader;
+    }
+
+    @Override
+    public int read() throws IOException{
+        int c = mReader.read();
+        return c < 0 ? -1 : c & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException{
+        if(len == 0){
+            return 0;
+        }
+        int count = mReader.read(mBuffer, 0, Math.min(len, mBuffer.length));
+        for(int i = 0; i < count; i++){
+            b[off + i] = (byte)mBuffer[i];
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException{
+        mReader.close();
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 行または区切り文字で区切られたレコードを1つずつ読み込むリーダー<br>
+ * 固定サイズのバッファを使い回すので、ファイルの大きさに関係なくメモリ使用量は一定 (最長のレコード分) になる。
+ *
+ * <pre>
+ * RecordReader reader = FileUtils.openLineReader(file);
+ * try{
+ *     for(String line : reader){
+ *         parse(line);
+ *     }
+ * }finally{
+ *     reader.close();
+ * }
+ * </pre>
+ */
+public class RecordReader implements Closeable, Iterable<String> {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+    /** 行単位で読み込む場合の区切り文字 (BufferedReader#readLine と同じく "\r\n"、"\n"、"\r" を区切りとみなす) */
+    public static final char LINE_DELIMITER = '\n';
+
+    private final Reader mReader;
+    private final char mDelimiter;
+    private final char[] mBuffer;
+    private final StringBuilder mRecord = new StringBuilder();
+    private int mPosition;
+    private int mLength;
+    private boolean mIsEnd;
+    /** 直前の行が "\r" で終わった */
+    private boolean mIsAfterCarriageReturn;
+    private long mRecordCount;
+
+    /**
+     * @param is
+     * @param charset
+     * @param delimiter レコードの区切り文字 ({@link #LINE_DELIMITER} の場合は行単位)
+     */
+    public RecordReader(InputStream is, Charset charset, char delimiter) {
+        this(new InputStreamReader(is, charset), delimiter, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param reader
+     * @param delimiter レコードの区切り文字 ({@link #LINE_DELIMITER} の場合は行単位)
+     * @param bufferSize
+     */
+    public RecordReader(Reader reader, char delimiter, int bufferSize) {
+        if(bufferSize < 1){
+            throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        }
+        mReader = reader;
+        mDelimiter = delimiter;
+        mBuffer = new char[bufferSize];
+    }
+
+    /**
+     * 次のレコードを読み込む
+     *
+     * @return 区切り文字を含まないレコード、最後まで読んだ場合は null
+     * @throws IOException
+     */
+    public String readRecord() throws IOException{
+        mRecord.setLength(0);
+        boolean isLine = mDelimiter == LINE_DELIMITER;
+        while(true){
+            if(mPosition == mLength){
+                if(mIsEnd || !fill()){
+                    if(mRecord.length() == 0){
+                        return null;
+                    }
+                    break;
+                }
+            }
+            if(mIsAfterCarriageReturn){
+                mIsAfterCarriageReturn = false;
+                if(mBuffer[mPosition] == '\n'){
+                    mPosition++;
+                    continue;
+                }
+            }
+            int start = mPosition;
+            int end = start;
+            if(isLine){
+                while(end < mLength && mBuffer[end] != '\n' && mBuffer[end] != '\r'){
+                    end++;
+                }
+            }else{
+                while(end < mLength && mBuffer[end] != mDelimiter){
+                    end++;
+                }
+            }
+            mRecord.append(mBuffer, start, end - start);
+            if(end < mLength){
+                // "\r\n" の "\n" は次のバッファにあるかもしれないので、次に読むときに飛ばす
+                mIsAfterCarriageReturn = isLine && mBuffer[end] == '\r';
+                mPosition = end + 1;
+                break;
+            }
+            mPosition = mLength;
+        }
+        mRecordCount++;
+        return mRecord.toString();
+    }
+
+    private boolean fill() throws IOException{
+        int count = mReader.read(mBuffer, 0, mBuffer.length);
+        if(count < 0){
+            mIsEnd = true;
+            mPosition = mLength = 0;
+            return false;
+        }
+        mPosition = 0;
+        mLength = count;
+        return true;
+    }
+
+    /**
+     * これまでに読み込んだレコード数
+     */
+    public long getRecordCount(){
+        return mRecordCount;
+    }
+
+    /**
+     * レコードを順に返すイテレータ<br>
+     * 読み込み中の IOException は IllegalStateException に包んで投げる。
+     */
+    @Override
+    public Iterator<String> iterator(){
+        return new Iterator<String>(){
+            private String mNext;
+
+            @Override
+            public boolean hasNext(){
+                if(mNext == null){
+                    try{
+                        mNext = readRecord();
+                    }catch(IOException e){
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return mNext != null;
+            }
+
+            @Override
+            public String next(){
+                if(!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                String next = mNext;
+                mNext = null;
+                return next;
+            }
+
+            @Override
+            public void remove(){
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException{
+        mReader.close();
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * 書き込んだバイトを1バイト1文字として Writer に書き込む OutputStream<br>
+ * Base64 など ASCII だけのデータを文字列として書き出すために使う。
+ */
+public class WriterOutputStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final Writer mWriter;
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+
+    /**
+     * @param writer
+     */
+    public WriterOutputStream(Writer writer) {
+        mWriter = writer;
+    }
+
+    @Override
+    public void write(int b) throws IOException{
+        mWriter.write(b & 0xff);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException{
+        while(len > 0){
+            int count = Math.min(len, mBuffer.length);
+            for(int i = 0; i < count; i++){
+                mBuffer[i] = (char)(b[off + i] & 0xff);
+            }
+            mWriter.write(mBuffer, 0, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException{
+        mWriter.flush();
+    }
+
+    @Override
+    public void close() throws IOException{
+        mWriter.close();
+    }
+
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.log;
+
+import at.wada811.utils.ThreadUtils;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ログを別スレッドで書き出すロガー<br>
+ * 呼び出し元のスレッドは事前に確保したリングバッファの {@link LogRecord} に値を詰めるだけで、
+ * 整形と書き出しは1つのバックグラウンドスレッドで行う。<br>
+ * 書き込み側はロックを取らない。バッファが一杯の場合は {@link OverflowPolicy} に従って捨てるか待つ。
+ *
+ * <pre>
+ * LogUtils.setAsyncLogger(new AsyncLogger(1024, AsyncLogger.OverflowPolicy.DROP, new LogcatSink()));
+ * </pre>
+ */
+public class AsyncLogger {
+
+    /**
+     * バッファが一杯のときの動作
+     */
+    public static enum OverflowPolicy {
+        /** 捨てて {@link AsyncLogger#getDroppedCount()} を増やす */
+        DROP,
+        /** 空くまで待つ (書き出しスレッドから呼ばれた場合は捨てる) */
+        BLOCK,
+    }
+
+    /** 書き出しスレッドが待つ最大時間 */
+    private static final long IDLE_PARK_NANOS = 100 * 1000000L;
+    /** バッファが空くのを待つ間隔 */
+    private static final long BLOCK_PARK_NANOS = 100 * 1000L;
+    private static final int SPIN_COUNT = 100;
+    /** 書き出しスレッドが終了して確保できなくなった mClaimed の値 */
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private final LogRecord[] mRecords;
+    private final int mMask;
+    /** スロットに書き込み済みのシーケンス番号 */
+    private final AtomicLongArray mPublished;
+    /** 次に書き込み側が確保するシーケンス番号 (書き出しスレッドが終了した後は {@link #CLOSED}) */
+    private final AtomicLong mClaimed = new AtomicLong();
+    /** 次に書き出すシーケンス番号 (これより前のスロットは再利用できる) */
+    private volatile long mConsumed;
+    /** sink に flush まで済んだシーケンス番号 */
+    private volatile long mFlushed;
+    private volatile boolean mIsWaiting;
+    private volatile boolean mIsFlushRequested;
+    private volatile long mFlushIntervalNanos;
+    private volatile boolean mIsShutdown;
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final OverflowPolicy mPolicy;
+    private final LogSink[] mSinks;
+    private final Thread mThread;
+
+    /**
+     * @param capacity バッファに溜められるログの数 (2の累乗に切り上げる)
+     * @param policy バッファが一杯のときの動作
+     * @param sinks 出力先
+     */
+    public AsyncLogger(int capacity, OverflowPolicy policy, LogSink... sinks) {
+        if(capacity < 1){
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if(size < capacity){
+            size <<= 1;
+        }
+        mRecords = new LogRecord[size];
+        mPublished = new AtomicLongArray(size);
+        for(int i = 0; i < size; i++){
+            mRecords[i] = new LogRecord();
+            mPublished.set(i, -1);
+        }
+        mMask = size - 1;
+        mPolicy = policy;
+        mSinks = sinks.clone();
+        mThread = ThreadUtils.newBackgroundThreadFactory(AsyncLogger.class.getSimpleName()).newThread(new Runnable(){
+            @Override
+            public void run(){
+                consume();
+            }
+        });
+        mThread.start();
+    }
+
+    /**
+     * ログをバッファに入れる
+     *
+     * @param priority
+     * @param tag
+     * @param caller
+     * @param message
+     * @param throwable
+     * @return shutdown 済みの場合は false (バッファが一杯で捨てた場合は true)
+     */
+    public boolean log(int priority, String tag, StackTraceElement caller, String message, Throwable throwable){
+        if(mIsShutdown){
+            return false;
+        }
+        LogRecord record = claim(priority, tag, caller, null);
+        if(record == null){
+            // shutdown と競合して確保できなかった場合は書き出されないので false
+            return !mIsShutdown;
+        }
+        record.mMessage = message;
+        record.mThrowable = throwable;
+        publish(record);
+        return true;
+    }
+
+    /**
+     * 整形前のメッセージを入れる LogRecord を確保する<br>
+     * {@link LogRecord#arg} で引数を追加してから必ず {@link #publish(LogRecord)} すること。<br>
+     * 引数の toString() が例外を投げるなどして publish できない場合は {@link #discard(LogRecord)} する。
+     * 返さないとスロットが空かず、書き出しスレッドが以降のログを書き出せなくなる。
+     *
+     * <pre>
+     * LogRecord record = logger.claim(Log.DEBUG, tag, null, "moveX: {}");
+     * if(record != null){
+     *     logger.publish(record.arg(moveX));
+     * }
+     * </pre>
+     *
+     * @param priority
+     * @param tag
+     * @param caller
+     * @param format "{}" を引数で置き換えるメッセージ
+     * @return バッファが一杯で捨てる場合と shutdown 済みの場合は null
+     */
+    public LogRecord claim(int priority, String tag, StackTraceElement caller, String format){
+        if(mIsShutdown){
+            return null;
+        }
+        long sequence = nextSequence();
+        if(sequence == CLOSED){
+            return null;
+        }
+        if(sequence < 0){
+            mDroppedCount.incrementAndGet();
+            return null;
+        }
+        LogRecord record = mRecords[(int)sequence & mMask];
+        record.set(priority, tag, caller, null, null);
+        record.mFormat = format;
+        record.mSequence = sequence;
+        return record;
+    }
+
+    /**
+     * {@link #claim} した LogRecord を書き出しスレッドに渡す
+     *
+     * @param record
+     */
+    public void publish(LogRecord record){
+        long sequence = record.mSequence;
+        mPublished.set((int)sequence & mMask, sequence);
+        if(mIsWaiting){
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    /**
+     * {@link #claim} した LogRecord を書き出さずに返す
+     *
+     * @param record
+     */
+    public void discard(LogRecord record){
+        record.mIsDiscarded = true;
+        mDroppedCount.incrementAndGet();
+        publish(record);
+    }
+
+    /**
+     * @return 確保したシーケンス番号、捨てる場合は -1、書き出しスレッドが終了している場合は {@link #CLOSED}
+     */
+    private long nextSequence(){
+        int spins = 0;
+        while(true){
+            long sequence = mClaimed.get();
+            if(sequence == CLOSED){
+                return CLOSED;
+            }
+            if(sequence - mConsumed >= mRecords.length){
+                // 書き出しスレッドが Error で終了した場合は空かないので待たない
+                if(mPolicy == OverflowPolicy.DROP || Thread.currentThread() == mThread || mIsShutdown || !mThread.isAlive()){
+                    return -1;
+                }
+                if(mIsWaiting){
+                    LockSupport.unpark(mThread);
+                }
+                if(spins++ < SPIN_COUNT){
+                    Thread.yield();
+                }else{
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                }
+                continue;
+            }
+            if(mClaimed.compareAndSet(sequence, sequence + 1)){
+                return sequence;
+            }
+        }
+    }
+
+    private void consume(){
+        long sequence = mConsumed;
+        long lastFlushNanos = System.nanoTime();
+        while(true){
+            int index = (int)sequence & mMask;
+            if(mPublished.get(index) == sequence){
+                LogRecord record = mRecords[index];
+                for(int i = 0; i < mSinks.length && !record.mIsDiscarded; i++){
+                    try{
+                        mSinks[i].write(record);
+                    }catch(RuntimeException e){
+                        e.printStackTrace();
+                    }
+                }
+                record.clear();
+                sequence++;
+                mConsumed = sequence;
+                continue;
+            }
+            long parkNanos = IDLE_PARK_NANOS;
+            if(mFlushed != sequence){
+                long elapsed = System.nanoTime() - lastFlushNanos;
+                if(mIsFlushRequested || mIsShutdown || elapsed >= mFlushIntervalNanos){
+                    mIsFlushRequested = false;
+                    flushSinks();
+                    mFlushed = sequence;
+                    lastFlushNanos = System.nanoTime();
+                }else{
+                    // 間隔が経ったら書き出す
+                    parkNanos = Math.min(parkNanos, mFlushIntervalNanos - elapsed);
+                }
+            }else{
+                mIsFlushRequested = false;
+            }
+            // shutdown を見る前に確保した書き込み側がいれば CAS が失敗するので、書き出してから終了する
+            if(mIsShutdown && mFlushed == sequence && mClaimed.compareAndSet(sequence, CLOSED)){
+                break;
+            }
+            // 書き込み側が mIsWaiting を見る前に書き込んだ場合に備えて確認してから待つ
+            mIsWaiting = true;
+            if(mPublished.get(index) != sequence && !mIsFlushRequested && !(mIsShutdown && mClaimed.get() == sequence)){
+                LockSupport.parkNanos(this, parkNanos);
+            }
+            mIsWaiting = false;
+        }
+        for(LogSink sink : mSinks){
+            sink.close();
+        }
+    }
+
+    private void flushSinks(){
+        for(LogSink sink : mSinks){
+            try{
+                sink.flush();
+            }catch(RuntimeException e){
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * バッファが空になったときに sink を flush する最小の間隔を設定する<br>
+     * ファイルへの小さな書き込みが続かないように、0 より大きい場合はその間 sink のバッファに溜める。
+     *
+     * @param intervalMillis 0 の場合はバッファが空になるたびに flush する (デフォルト)
+     */
+    public void setFlushInterval(long intervalMillis){
+        mFlushIntervalNanos = intervalMillis * 1000000L;
+        LockSupport.unpark(mThread);
+    }
+
+    /**
+     * 呼び出した時点までのログが全て書き出されるまで待つ<br>
+     * {@link #setFlushInterval(long)} の間隔に関係なく sink を flush する。
+     *
+     * @param timeoutMillis
+     * @return 書き出した場合は true、タイムアウトした場合は false
+     */
+    public boolean flush(long timeoutMillis){
+        if(Thread.currentThread() == mThread){
+            return false;
+        }
+        long target = mClaimed.get();
+        if(target == CLOSED){
+            return true;
+        }
+        long deadline = System.nanoTime() + timeoutMillis * 1000000L;
+        while(mFlushed < target){
+            if(!mThread.isAlive() || System.nanoTime() - deadline >= 0){
+                return false;
+            }
+            mIsFlushRequested = true;
+            LockSupport.unpark(mThread);
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * バッファに残っているログを書き出してからスレッドを終了し、sink を閉じる<br>
+     * 以降のログは {@link #log} が false を返し、{@link #claim} が null を返す。
+     */
+    public void shutdown(){
+        mIsShutdown = true;
+        LockSupport.unpark(mThread);
+    }
+
+    public boolean isShutdown(){
+        return mIsShutdown;
+    }
+
+    /**
+     * バッファが一杯で捨てたログと {@link #discard(LogRecord)} したログの数
+     */
+    public long getDroppedCount(){
+        return mDroppedCount.get();
+    }
+
+    /**
+     * 書き出したログの数
+     */
+    public long getWrittenCount(){
+        return mConsumed;
+    }
+
+    public int getCapacity(){
+        return mRecords.length;
+    }
+
+    @Override
+    public String toString(){
+        return AsyncLogger.class.getSimpleName() + "[capacity=" + mRecords.length + ", policy=" + mPolicy + ", written=" + mConsumed + ", dropped=" + mDroppedCount.get() + "]";
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.SimpleTimeZone;
+
+/**
+ * {@link BinaryLogSink} のファイルを {@link RollingFileSink} と同じテキストに戻す<br>
+ * Android に依存しないので、端末から取り出したファイルを PC の JVM で読める。
+ *
+ * <pre>
+ * $ java -cp AndroidLibrary.jar at.wada811.log.BinaryLogDecoder app.2.blog app.1.blog app.blog &gt; app.log
+ * </pre>
+ */
+public final class BinaryLogDecoder {
+
+    private static final String PRIORITIES = "??VDIWEA";
+
+    private final HashMap<Integer, String> mDefinitions = new HashMap<Integer, String>();
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+    private final Date mDate = new Date();
+    private final StringBuilder mBuilder = new StringBuilder(256);
+    private long mLastTimeMillis;
+    private int mRecordCount;
+
+    /**
+     * 古いファイルから順に標準出力に書き出す
+     *
+     * @param args ファイルのパス
+     */
+    public static void main(String[] args) throws IOException{
+        if(args.length == 0){
+            System.err.println("usage: java " + BinaryLogDecoder.class.getName() + " file...");
+            System.exit(1);
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"));
+        try{
+            for(String path : args){
+                InputStream in = new BufferedInputStream(new FileInputStream(path));
+                try{
+                    new BinaryLogDecoder().decode(in, out);
+                }catch(EOFException e){
+                    // 書き込み中にプロセスが終了した場合は最後のログが途中で切れている
+                    out.flush();
+                    System.err.println(path + ": truncated");
+                }catch(IOException e){
+                    // 壊れたファイルがあっても残りのファイルは読む
+                    out.flush();
+                    System.err.println(path + ": " + e.getMessage());
+                }finally{
+                    in.close();
+                }
+            }
+        }finally{
+            out.flush();
+        }
+    }
+
+    /**
+     * ストリームの終わりまでテキストに戻す
+     *
+     * @param in
+     * @param out
+     * @return 書き出したログの数
+     * @throws EOFException エントリの途中でストリームが終わった場合
+     * @throws IOException 形式が正しくない場合
+     */
+    public int decode(InputStream in, Appendable out) throws IOException{
+        int start = mRecordCount;
+        int entry;
+        while((entry = in.read()) >= 0){
+            if(entry == BinaryLogFormat.MAGIC[0]){
+                readHeader(in);
+            }else if(entry == BinaryLogFormat.ENTRY_DEFINE){
+                int id = BinaryLogFormat.readVarInt(in);
+                mDefinitions.put(id, BinaryLogFormat.readString(in));
+            }else if(entry == BinaryLogFormat.ENTRY_RECORD){
+                out.append(readRecord(in));
+                mRecordCount++;
+            }else{
+                throw new IOException("unknown entry: " + entry);
+            }
+        }
+        return mRecordCount - start;
+    }
+
+    private void readHeader(InputStream in) throws IOException{
+        for(int i = 1; i < BinaryLogFormat.MAGIC.length; i++){
+            if(BinaryLogFormat.readByte(in) != BinaryLogFormat.MAGIC[i]){
+                throw new IOException("bad magic");
+            }
+        }
+        int version = BinaryLogFormat.readByte(in);
+        if(version > BinaryLogFormat.VERSION){
+            throw new IOException("unsupported version: " + version);
+        }
+        mDefinitions.clear();
+        mLastTimeMillis = BinaryLogFormat.readVarLong(in);
+        if(version >= 2){
+            // 端末のタイムゾーンで整形する (version 1 はこの JVM のタイムゾーン)
+            int offset = (int)BinaryLogFormat.unzigzag(BinaryLogFormat.readVarLong(in));
+            mDateFormat.setTimeZone(new SimpleTimeZone(offset, "UTC"));
+        }
+    }
+
+    private StringBuilder readRecord(InputStream in) throws IOException{
+        long timeMillis = mLastTimeMillis + BinaryLogFormat.unzigzag(BinaryLogFormat.readVarLong(in));
+        mLastTimeMillis = timeMillis;
+        int priority = BinaryLogFormat.readByte(in);
+        String tag = lookup(BinaryLogFormat.readVarInt(in));
+        String threadName = lookup(BinaryLogFormat.readVarInt(in));
+        long threadId = BinaryLogFormat.readVarLong(in);
+        String caller = lookup(BinaryLogFormat.readVarInt(in));
+        String format = lookup(BinaryLogFormat.readVarInt(in));
+        String message = null;
+        if(format == null && BinaryLogFormat.readByte(in) != 0){
+            message = BinaryLogFormat.readString(in);
+        }
+        MessageFormatter formatter = format == null ? null : MessageFormatter.start(format);
+        int argCount = BinaryLogFormat.readByte(in);
+        for(int i = 0; i < argCount; i++){
+            int type = BinaryLogFormat.readByte(in);
+            switch(type){
+                case LogRecord.TYPE_LONG:
+                    long value = BinaryLogFormat.unzigzag(BinaryLogFormat.readVarLong(in));
+                    if(formatter != null){
+                        formatter.arg(value);
+                    }
+                    break;
+                case LogRecord.TYPE_FLOAT:
+                    float floatValue = Float.intBitsToFloat((int)BinaryLogFormat.readFixed(in, 4));
+                    if(formatter != null){
+                        formatter.arg(floatValue);
+                    }
+                    break;
+                case LogRecord.TYPE_DOUBLE:
+                    double doubleValue = Double.longBitsToDouble(BinaryLogFormat.readFixed(in, 8));
+                    if(formatter != null){
+                        formatter.arg(doubleValue);
+                    }
+                    break;
+                case LogRecord.TYPE_BOOLEAN:
+                    boolean booleanValue = BinaryLogFormat.readByte(in) != 0;
+                    if(formatter != null){
+                        formatter.arg(booleanValue);
+                    }
+                    break;
+                case LogRecord.TYPE_STRING:
+                    String stringValue = BinaryLogFormat.readString(in);
+                    if(formatter != null){
+                        formatter.arg(stringValue);
+                    }
+                    break;
+                default:
+                    throw new IOException("unknown argument type: " + type);
+            }
+        }
+        if(formatter != null){
+            message = formatter.build();
+        }
+        String stackTrace = BinaryLogFormat.readByte(in) != 0 ? BinaryLogFormat.readString(in) : null;
+
+        StringBuilder builder = mBuilder;
+        builder.setLength(0);
+        mDate.setTime(timeMillis);
+        builder.append(mDateFormat.format(mDate));
+        builder.append(' ').append(threadId).append('/').append(threadName).append(' ');
+        builder.append(priority < PRIORITIES.length() ? PRIORITIES.charAt(priority) : '?');
+        builder.append('/').append(tag).append(": ");
+        if(caller != null){
+            builder.append(caller);
+        }
+        if(message != null){
+            builder.append(message);
+        }
+        builder.append('\n');
+        if(stackTrace != null){
+            builder.append(stackTrace);
+        }
+        return builder;
+    }
+
+    /**
+     * @return id が 0 の場合は null
+     */
+    private String lookup(int id) throws IOException{
+        if(id == 0){
+            return null;
+        }
+        String value = mDefinitions.get(id);
+        if(value == null){
+            throw new IOException("undefined id: " + id);
+        }
+        return value;
+    }
+
+}
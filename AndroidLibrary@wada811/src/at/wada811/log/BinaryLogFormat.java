@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.log;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link BinaryLogSink} が書き出し、{@link BinaryLogDecoder} が読み込むバイナリ形式<br>
+ * ファイルは次のエントリの並びで、整数は全て可変長 (7ビットずつ、下位から) で書く。
+ *
+ * <pre>
+ * HEADER : 'W' 'L' 'O' 'G' version startTimeMillis zigzag(UTC からのオフセットのミリ秒)
+ *          (ID の表をリセットする。ファイルの先頭と表が大きくなりすぎたときに書く)
+ * DEFINE : 0x01 id length utf8
+ *          (タグ、スレッド名、呼び出し元、整形前のメッセージに ID を付ける)
+ * RECORD : 0x02 zigzag(timeMillis - 前の timeMillis) priority tagId threadNameId threadId callerId formatId
+ *          formatId が 0 の場合は hasMessage [length utf8]
+ *          argCount (type value)*
+ *          hasThrowable [length utf8]
+ * </pre>
+ *
+ * 引数は long が zigzag の可変長、float が4バイト、double が8バイト (ビッグエンディアン)、
+ * boolean が1バイト、文字列が length utf8。ID の 0 は「無し」を表す。<br>
+ * version 1 の HEADER にはオフセットが無い。
+ */
+final class BinaryLogFormat {
+
+    static final byte[] MAGIC = { 'W', 'L', 'O', 'G' };
+    static final int VERSION = 2;
+    static final int ENTRY_DEFINE = 0x01;
+    static final int ENTRY_RECORD = 0x02;
+    /** これより多く ID を付けたら HEADER を書き直して表を小さく保つ */
+    static final int MAX_DEFINITIONS = 4096;
+
+    private BinaryLogFormat() {
+    }
+
+    static long zigzag(long value){
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value){
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * @return 1バイト、ストリームの終わりの場合は EOFException
+     */
+    static int readByte(InputStream in) throws IOException{
+        int b = in.read();
+        if(b < 0){
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    static long readVarLong(InputStream in) throws IOException{
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            int b = BinaryLogFormat.readByte(in);
+            value |= (long)(b & 0x7F) << shift;
+            if((b & 0x80) == 0){
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+
+    static int readVarInt(InputStream in) throws IOException{
+        long value = BinaryLogFormat.readVarLong(in);
+        if(value < 0 || value > Integer.MAX_VALUE){
+            throw new IOException("varint out of range: " + value);
+        }
+        return (int)value;
+    }
+
+    static long readFixed(InputStream in, int byteCount) throws IOException{
+        long value = 0;
+        for(int i = 0; i < byteCount; i++){
+            value = value << 8 | BinaryLogFormat.readByte(in);
+        }
+        return value;
+    }
+
+    static String readString(InputStream in) throws IOException{
+        int length = BinaryLogFormat.readVarInt(in);
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        while(offset < length){
+            int count = in.read(bytes, offset, length - offset);
+            if(count < 0){
+                throw new EOFException();
+            }
+            offset += count;
+        }
+        return new String(bytes, 0, length, "UTF-8");
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.log;
+
+import at.wada811.utils.LogUtils;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.TimeZone;
+
+/**
+ * ログを整形せずにバイナリ形式でファイルに出力する<br>
+ * タグ、スレッド名、呼び出し元、整形前のメッセージはファイルごとに1度だけ書いて以降は ID で参照し、
+ * {@link LogRecord#arg} の引数は型のまま書く。"{}" の置き換えも日時の整形も端末では行わない。<br>
+ * 読むときは {@link BinaryLogDecoder} で {@link RollingFileSink} と同じテキストに戻す。<br>
+ * 強制終了でログが途中で切れることがあるので、既存のファイルには追記せずにローテーションしてから書き始める。
+ *
+ * <pre>
+ * LogUtils.setAsyncLogger(new AsyncLogger(1024, AsyncLogger.OverflowPolicy.DROP, new BinaryLogSink(context.getFilesDir(), "app", 1024 * 1024, 5)));
+ * LogUtils.log(Log.DEBUG, "moveX: {}, moveY: {}", moveX, moveY);
+ *
+ * $ java -cp AndroidLibrary.jar at.wada811.log.BinaryLogDecoder app.1.blog app.blog
+ * </pre>
+ *
+ * @see BinaryLogFormat
+ */
+public class BinaryLogSink extends RollingFileSink {
+
+    public static final String EXTENSION = ".blog";
+
+    /** 書き込み中のファイルで ID を付けた文字列 (呼び出し元は StackTraceElement) */
+    private final HashMap<Object, Integer> mIds = new HashMap<Object, Integer>();
+    private byte[] mBytes = new byte[256];
+    private int mLength;
+    private long mLastTimeMillis;
+
+    /**
+     * @param directory
+     * @param name ファイル名 (拡張子を除く)
+     * @param maxFileBytes 1ファイルの最大バイト数
+     * @param maxFiles 残すファイルの数
+     */
+    public BinaryLogSink(File directory, String name, long maxFileBytes, int maxFiles) {
+        this(directory, name, maxFileBytes, maxFiles, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param directory
+     * @param name ファイル名 (拡張子を除く)
+     * @param maxFileBytes 1ファイルの最大バイト数 (ログの途中では分けないので最後のログの分だけ超える)
+     * @param maxFiles 残すファイルの数
+     * @param bufferSize 溜めるバイト数
+     */
+    public BinaryLogSink(File directory, String name, long maxFileBytes, int maxFiles, int bufferSize) {
+        super(directory, name, EXTENSION, maxFileBytes, maxFiles, bufferSize);
+    }
+
+    @Override
+    public void write(LogRecord record){
+        try{
+            prepare();
+            if(mIds.size() >= BinaryLogFormat.MAX_DEFINITIONS){
+                writeHeader();
+            }
+            mLength = 0;
+            // DEFINE を RECORD より前に書く
+            int tagId = define(record.mTag, record.mTag);
+            int threadNameId = define(record.mThreadName, record.mThreadName);
+            int callerId = define(record.mCaller, null);
+            int formatId = define(record.mFormat, record.mFormat);
+            putByte(BinaryLogFormat.ENTRY_RECORD);
+            putVarLong(BinaryLogFormat.zigzag(record.mTimeMillis - mLastTimeMillis));
+            mLastTimeMillis = record.mTimeMillis;
+            putByte(record.mPriority);
+            putVarLong(tagId);
+            putVarLong(threadNameId);
+            putVarLong(record.mThreadId);
+            putVarLong(callerId);
+            putVarLong(formatId);
+            if(formatId == 0){
+                putByte(record.mMessage == null ? 0 : 1);
+                if(record.mMessage != null){
+                    putString(record.mMessage);
+                }
+            }
+            putArgs(record);
+            putByte(record.mThrowable == null ? 0 : 1);
+            if(record.mThrowable != null){
+                StringWriter writer = new StringWriter();
+                record.mThrowable.printStackTrace(new PrintWriter(writer));
+                putString(writer.getBuffer());
+            }
+            writeBytes(mBytes, 0, mLength);
+        }catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    protected void onFileStarted() throws IOException{
+        writeHeader();
+    }
+
+    /**
+     * 途中で切れたログの後に HEADER を書くと読めなくなるので追記しない
+     */
+    @Override
+    protected boolean isAppendable(){
+        return false;
+    }
+
+    /**
+     * HEADER を書いて ID の表をリセットする
+     */
+    private void writeHeader() throws IOException{
+        mIds.clear();
+        mLastTimeMillis = System.currentTimeMillis();
+        mLength = 0;
+        for(byte b : BinaryLogFormat.MAGIC){
+            putByte(b);
+        }
+        putByte(BinaryLogFormat.VERSION);
+        putVarLong(mLastTimeMillis);
+        // デコードする PC ではなく端末のタイムゾーンで日時を整形するため
+        putVarLong(BinaryLogFormat.zigzag(TimeZone.getDefault().getOffset(mLastTimeMillis)));
+        writeBytes(mBytes, 0, mLength);
+    }
+
+    /**
+     * ID を取得し、初めての場合は DEFINE を書く
+     *
+     * @param key
+     * @param value null の場合は key を呼び出し元として整形する
+     * @return key が null の場合は 0
+     */
+    private int define(Object key, String value){
+        if(key == null){
+            return 0;
+        }
+        Integer id = mIds.get(key);
+        if(id != null){
+            return id;
+        }
+        id = mIds.size() + 1;
+        mIds.put(key, id);
+        putByte(BinaryLogFormat.ENTRY_DEFINE);
+        putVarLong(id);
+        putString(value == null ? LogUtils.getMetaInfo((StackTraceElement)key) : value);
+        return id;
+    }
+
+    private void putArgs(LogRecord record){
+        int count = record.mArgCount;
+        putByte(count);
+        for(int i = 0; i < count; i++){
+            byte type = record.mArgTypes[i];
+            long bits = record.mArgBits[i];
+            putByte(type);
+            switch(type){
+                case LogRecord.TYPE_LONG:
+                    putVarLong(BinaryLogFormat.zigzag(bits));
+                    break;
+                case LogRecord.TYPE_FLOAT:
+                    putFixed(bits, 4);
+                    break;
+                case LogRecord.TYPE_DOUBLE:
+                    putFixed(bits, 8);
+                    break;
+                case LogRecord.TYPE_BOOLEAN:
+                    putByte((int)bits);
+                    break;
+                default:
+                    putString(record.mArgStrings[i]);
+                    break;
+            }
+        }
+    }
+
+    private void ensureCapacity(int count){
+        if(mLength + count > mBytes.length){
+            byte[] bytes = new byte[Math.max(mLength + count, mBytes.length * 2)];
+            System.arraycopy(mBytes, 0, bytes, 0, mLength);
+            mBytes = bytes;
+        }
+    }
+
+    private void putByte(int value){
+        ensureCapacity(1);
+        mBytes[mLength++] = (byte)value;
+    }
+
+    private void putVarLong(long value){
+        ensureCapacity(10);
+        while((value & ~0x7FL) != 0){
+            mBytes[mLength++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mBytes[mLength++] = (byte)value;
+    }
+
+    private void putFixed(long value, int byteCount){
+        ensureCapacity(byteCount);
+        for(int i = byteCount - 1; i >= 0; i--){
+            mBytes[mLength++] = (byte)(value >>> (i * 8));
+        }
+    }
+
+    /**
+     * 長さと UTF-8 のバイト列を書く<br>
+     * String.getBytes() で配列を生成しないように直接エンコードする。
+     */
+    private void putString(CharSequence string){
+        int length = string.length();
+        int byteCount = 0;
+        for(int i = 0; i < length; i++){
+            char c = string.charAt(i);
+            if(c < 0x80){
+                byteCount += 1;
+            }else if(c < 0x800){
+                byteCount += 2;
+            }else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))){
+                byteCount += 4;
+                i++;
+            }else if(BinaryLogSink.isSurrogate(c)){
+                byteCount += 1;
+            }else{
+                byteCount += 3;
+            }
+        }
+        putVarLong(byteCount);
+        ensureCapacity(byteCount);
+        byte[] bytes = mBytes;
+        int position = mLength;
+        for(int i = 0; i < length; i++){
+            char c = string.charAt(i);
+            if(c < 0x80){
+                bytes[position++] = (byte)c;
+            }else if(c < 0x800){
+                bytes[position++] = (byte)(0xC0 | c >> 6);
+                bytes[position++] = (byte)(0x80 | c & 0x3F);
+            }else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))){
+                int codePoint = Character.toCodePoint(c, string.charAt(++i));
+                bytes[position++] = (byte)(0xF0 | codePoint >> 18);
+                bytes[position++] = (byte)(0x80 | codePoint >> 12 & 0x3F);
+                bytes[position++] = (byte)(0x80 | codePoint >> 6 & 0x3F);
+                bytes[position++] = (byte)(0x80 | codePoint & 0x3F);
+            }else if(BinaryLogSink.isSurrogate(c)){
+                // RollingFileSink と同じく対になっていないサロゲートは置き換える
+                bytes[position++] = '?';
+            }else{
+                bytes[position++] = (byte)(0xE0 | c >> 12);
+                bytes[position++] = (byte)(0x80 | c >> 6 & 0x3F);
+                bytes[position++] = (byte)(0x80 | c & 0x3F);
+            }
+        }
+        mLength = position;
+    }
+
+    private static boolean isSurrogate(char c){
+        return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+    }
+
+}
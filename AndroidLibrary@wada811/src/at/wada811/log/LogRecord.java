@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.log;
+
+/**
+ * 1件のログ<br>
+ * {@link AsyncLogger} のリングバッファに事前に確保して使い回すので、{@link LogSink#write(LogRecord)} の外で参照を保持してはいけない。
+ */
+public final class LogRecord {
+
+    /** {@link #arg} で渡せる引数の最大数 (超えた分は捨てる) */
+    public static final int MAX_ARGS = 8;
+    public static final byte TYPE_LONG = 1;
+    public static final byte TYPE_FLOAT = 2;
+    public static final byte TYPE_DOUBLE = 3;
+    public static final byte TYPE_BOOLEAN = 4;
+    public static final byte TYPE_STRING = 5;
+
+    int mPriority;
+    String mTag;
+    StackTraceElement mCaller;
+    String mMessage;
+    Throwable mThrowable;
+    long mTimeMillis;
+    long mThreadId;
+    String mThreadName;
+    /** 整形前のメッセージ ("{}" を引数で置き換える) */
+    String mFormat;
+    int mArgCount;
+    final byte[] mArgTypes = new byte[MAX_ARGS];
+    /** 数値の引数 (float と double はビット列) */
+    final long[] mArgBits = new long[MAX_ARGS];
+    final String[] mArgStrings = new String[MAX_ARGS];
+    /** {@link AsyncLogger} のシーケンス番号 */
+    long mSequence;
+    /** {@link AsyncLogger#discard(LogRecord)} されたので書き出さない */
+    boolean mIsDiscarded;
+
+    LogRecord() {
+    }
+
+    void set(int priority, String tag, StackTraceElement caller, String message, Throwable throwable){
+        Thread thread = Thread.currentThread();
+        mPriority = priority;
+        mTag = tag;
+        mCaller = caller;
+        mMessage = message;
+        mThrowable = throwable;
+        mTimeMillis = System.currentTimeMillis();
+        mThreadId = thread.getId();
+        mThreadName = thread.getName();
+        mFormat = null;
+        mArgCount = 0;
+        mIsDiscarded = false;
+    }
+
+    public LogRecord arg(long value){
+        return addArg(TYPE_LONG, value, null);
+    }
+
+    public LogRecord arg(float value){
+        return addArg(TYPE_FLOAT, Float.floatToRawIntBits(value), null);
+    }
+
+    public LogRecord arg(double value){
+        return addArg(TYPE_DOUBLE, Double.doubleToRawLongBits(value), null);
+    }
+
+    public LogRecord arg(boolean value){
+        return addArg(TYPE_BOOLEAN, value ? 1 : 0, null);
+    }
+
+    /**
+     * long に拡大されて数値になるのを防ぐ
+     */
+    public LogRecord arg(char value){
+        return addArg(TYPE_STRING, 0, String.valueOf(value));
+    }
+
+    /**
+     * オブジェクトは書き出すまでに変更されないようにここで文字列にする
+     */
+    public LogRecord arg(Object value){
+        return addArg(TYPE_STRING, 0, String.valueOf(value));
+    }
+
+    private LogRecord addArg(byte type, long bits, String string){
+        if(mArgCount < MAX_ARGS){
+            mArgTypes[mArgCount] = type;
+            mArgBits[mArgCount] = bits;
+            mArgStrings[mArgCount] = string;
+            mArgCount++;
+        }
+        return this;
+    }
+
+    /**
+     * 書き出した後に参照を外す
+     */
+    void clear(){
+        mTag = null;
+        mCaller = null;
+        mMessage = null;
+        mThrowable = null;
+        mThreadName = null;
+        mFormat = null;
+        for(int i = 0; i < mArgCount; i++){
+            mArgStrings[i] = null;
+        }
+        mArgCount = 0;
+    }
+
+    /**
+     * @return {@link android.util.Log#VERBOSE} など
+     */
+    public int getPriority(){
+        return mPriority;
+    }
+
+    public String getTag(){
+        return mTag;
+    }
+
+    /**
+     * @return 呼び出し元、取得しなかった場合は null
+     */
+    public StackTraceElement getCaller(){
+        return mCaller;
+    }
+
+    /**
+     * 整形したメッセージを取得する<br>
+     * 整形前のメッセージと引数を渡された場合は、ここで初めて整形する。
+     *
+     * @return 例外だけを出力する場合は null
+     */
+    public String getMessage(){
+        if(mMessage == null && mFormat != null){
+            MessageFormatter formatter = MessageFormatter.start(mFormat);
+            for(int i = 0; i < mArgCount; i++){
+                switch(mArgTypes[i]){
+                    case TYPE_LONG:
+                        formatter.arg(mArgBits[i]);
+                        break;
+                    case TYPE_FLOAT:
+                        formatter.arg(Float.intBitsToFloat((int)mArgBits[i]));
+                        break;
+                    case TYPE_DOUBLE:
+                        formatter.arg(Double.longBitsToDouble(mArgBits[i]));
+                        break;
+                    case TYPE_BOOLEAN:
+                        formatter.arg(mArgBits[i] != 0);
+                        break;
+                    default:
+                        formatter.arg(mArgStrings[i]);
+                        break;
+                }
+            }
+            mMessage = formatter.build();
+        }
+        return mMessage;
+    }
+
+    /**
+     * @return 整形前のメッセージ、整形済みのメッセージを渡された場合は null
+     */
+    public String getFormat(){
+        return mFormat;
+    }
+
+    public Throwable getThrowable(){
+        return mThrowable;
+    }
+
+    public long getTimeMillis(){
+        return mTimeMillis;
+    }
+
+    public long getThreadId(){
+        return mThreadId;
+    }
+
+    public String getThreadName(){
+        return mThreadName;
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.log;
+
+/**
+ * ログの出力先<br>
+ * {@link AsyncLogger} の1つのスレッドからしか呼ばれないので、スレッドセーフである必要はない。
+ */
+public interface LogSink {
+
+    /**
+     * ログを書き出す (バッファリングしてよい)
+     *
+     * @param record この呼び出しの中だけ有効
+     */
+    public void write(LogRecord record);
+
+    /**
+     * バッファリングしたログを書き出す<br>
+     * 溜まっていたログを全て書き出した後に呼ばれる。
+     */
+    public void flush();
+
+    /**
+     * 出力先を閉じる
+     */
+    public void close();
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.log;
+
+import android.util.Log;
+import at.wada811.utils.LogUtils;
+
+/**
+ * logcat に出力する
+ */
+public class LogcatSink implements LogSink {
+
+    private final StringBuilder mBuilder = new StringBuilder();
+
+    @Override
+    public void write(LogRecord record){
+        StringBuilder builder = mBuilder;
+        builder.setLength(0);
+        if(record.mCaller != null){
+            builder.append(LogUtils.getMetaInfo(record.mCaller));
+        }
+        String message = record.getMessage();
+        if(message != null){
+            builder.append(message);
+        }
+        if(record.mThrowable != null){
+            if(builder.length() > 0){
+                builder.append('\n');
+            }
+            builder.append(Log.getStackTraceString(record.mThrowable));
+        }
+        Log.println(record.mPriority, record.mTag, builder.toString());
+    }
+
+    @Override
+    public void flush(){
+        // logcat はバッファリングしない
+    }
+
+    @Override
+    public void close(){
+    }
+
+}
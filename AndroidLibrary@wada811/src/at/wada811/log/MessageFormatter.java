@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.log;
+
+/**
+ * "{}" を引数で置き換えてメッセージを組み立てる<br>
+ * スレッドごとの StringBuilder を使い回すので、生成するのは最後の String だけ。<br>
+ * 引数が足りない "{}" はそのまま残し、余った引数は捨てる。
+ *
+ * <pre>
+ * String message = MessageFormatter.start("moveX: {}, moveY: {}").arg(moveX).arg(moveY).build();
+ * </pre>
+ */
+public final class MessageFormatter {
+
+    private static final String PLACEHOLDER = "{}";
+    /** これより大きくなった StringBuilder は使い回さない */
+    private static final int MAX_RETAINED_CAPACITY = 8 * 1024;
+
+    private static final ThreadLocal<MessageFormatter> sFormatter = new ThreadLocal<MessageFormatter>(){
+        @Override
+        protected MessageFormatter initialValue(){
+            return new MessageFormatter();
+        }
+    };
+
+    private StringBuilder mBuilder = new StringBuilder(256);
+    private String mFormat;
+    private int mPosition;
+
+    private MessageFormatter() {
+    }
+
+    /**
+     * 現在のスレッドのフォーマッタで組み立てを始める<br>
+     * {@link #build()} するまで同じスレッドで別のメッセージを組み立ててはいけない。
+     *
+     * @param format
+     * @return formatter
+     */
+    public static MessageFormatter start(String format){
+        MessageFormatter formatter = sFormatter.get();
+        if(formatter.mBuilder.capacity() > MAX_RETAINED_CAPACITY){
+            formatter.mBuilder = new StringBuilder(256);
+        }
+        formatter.mBuilder.setLength(0);
+        formatter.mFormat = format == null ? "null" : format;
+        formatter.mPosition = 0;
+        return formatter;
+    }
+
+    /**
+     * 次の "{}" の手前までを書き出す
+     *
+     * @return "{}" が無い場合は false
+     */
+    private boolean next(){
+        int index = mFormat.indexOf(PLACEHOLDER, mPosition);
+        if(index < 0){
+            return false;
+        }
+        mBuilder.append(mFormat, mPosition, index);
+        mPosition = index + PLACEHOLDER.length();
+        return true;
+    }
+
+    public MessageFormatter arg(long value){
+        if(next()){
+            mBuilder.append(value);
+        }
+        return this;
+    }
+
+    public MessageFormatter arg(float value){
+        if(next()){
+            mBuilder.append(value);
+        }
+        return this;
+    }
+
+    public MessageFormatter arg(double value){
+        if(next()){
+            mBuilder.append(value);
+        }
+        return this;
+    }
+
+    public MessageFormatter arg(boolean value){
+        if(next()){
+            mBuilder.append(value);
+        }
+        return this;
+    }
+
+    /**
+     * long に拡大されて数値になるのを防ぐ
+     */
+    public MessageFormatter arg(char value){
+        if(next()){
+            mBuilder.append(value);
+        }
+        return this;
+    }
+
+    public MessageFormatter arg(Object value){
+        if(next()){
+            mBuilder.append(value);
+        }
+        return this;
+    }
+
+    /**
+     * @return 組み立てたメッセージ
+     */
+    public String build(){
+        mBuilder.append(mFormat, mPosition, mFormat.length());
+        String message = mBuilder.toString();
+        mFormat = null;
+        return message;
+    }
+
+}
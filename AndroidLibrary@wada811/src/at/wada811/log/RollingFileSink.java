@@ -0,0 +1,335 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.log;
+
+import at.wada811.utils.LogUtils;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Calendar;
+
+/**
+ * ファイルに出力する<br>
+ * ログはバッファに溜め、一杯になったときと {@link #flush()} のときだけ FileChannel に書き込む。<br>
+ * ファイルが maxFileBytes を超えると name.log を name.1.log に、name.1.log を name.2.log に順に名前を変えて、
+ * maxFiles 個を超えた古いファイルを削除する。
+ *
+ * <pre>
+ * AsyncLogger logger = new AsyncLogger(1024, AsyncLogger.OverflowPolicy.DROP, new LogcatSink(), new RollingFileSink(context.getFilesDir(), "app", 1024 * 1024, 5));
+ * logger.setFlushInterval(1000);
+ * LogUtils.setAsyncLogger(logger);
+ * LogUtils.flushOnUncaughtException(1000);
+ * </pre>
+ */
+public class RollingFileSink implements LogSink {
+
+    public static final int DEFAULT_BUFFER_SIZE = 32 * 1024;
+    private static final String EXTENSION = ".log";
+    private static final String PRIORITIES = "??VDIWEA";
+
+    private final File mDirectory;
+    private final String mName;
+    private final String mExtension;
+    private final long mMaxFileBytes;
+    private final int mMaxFiles;
+    private final ByteBuffer mBuffer;
+    private final CharsetEncoder mEncoder;
+    private final StringBuilder mBuilder = new StringBuilder(256);
+    private final Calendar mCalendar = Calendar.getInstance();
+    private char[] mChars = new char[256];
+    private CharBuffer mCharBuffer = CharBuffer.wrap(mChars);
+    private FileChannel mChannel;
+    /** 書き込み中のファイルに {@link #onFileStarted()} を呼んだか */
+    private boolean mIsFileStarted;
+    private long mFileBytes;
+    private long mWrittenBytes;
+    private int mRotationCount;
+
+    /**
+     * @param directory
+     * @param name ファイル名 (拡張子を除く)
+     * @param maxFileBytes 1ファイルの最大バイト数
+     * @param maxFiles 残すファイルの数
+     */
+    public RollingFileSink(File directory, String name, long maxFileBytes, int maxFiles) {
+        this(directory, name, maxFileBytes, maxFiles, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param directory
+     * @param name ファイル名 (拡張子を除く)
+     * @param maxFileBytes 1ファイルの最大バイト数 (ログの途中では分けないので最後のログの分だけ超える)
+     * @param maxFiles 残すファイルの数
+     * @param bufferSize 溜めるバイト数
+     */
+    public RollingFileSink(File directory, String name, long maxFileBytes, int maxFiles, int bufferSize) {
+        this(directory, name, EXTENSION, maxFileBytes, maxFiles, bufferSize);
+    }
+
+    /**
+     * @param directory
+     * @param name ファイル名 (拡張子を除く)
+     * @param extension 拡張子
+     * @param maxFileBytes 1ファイルの最大バイト数 (ログの途中では分けないので最後のログの分だけ超える)
+     * @param maxFiles 残すファイルの数
+     * @param bufferSize 溜めるバイト数
+     */
+    protected RollingFileSink(File directory, String name, String extension, long maxFileBytes, int maxFiles, int bufferSize) {
+        if(maxFileBytes <= 0 || maxFiles < 1 || bufferSize < 1){
+            throw new IllegalArgumentException("maxFileBytes: " + maxFileBytes + ", maxFiles: " + maxFiles + ", bufferSize: " + bufferSize);
+        }
+        mDirectory = directory;
+        mName = name;
+        mExtension = extension;
+        mMaxFileBytes = maxFileBytes;
+        mMaxFiles = maxFiles;
+        mBuffer = ByteBuffer.allocate(bufferSize);
+        mEncoder = Charset.forName("UTF-8").newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * ファイルを取得する
+     *
+     * @param index 0 が書き込み中のファイル、大きいほど古い
+     * @return file
+     */
+    public File getFile(int index){
+        return new File(mDirectory, index == 0 ? mName + mExtension : mName + "." + index + mExtension);
+    }
+
+    @Override
+    public void write(LogRecord record){
+        StringBuilder builder = mBuilder;
+        builder.setLength(0);
+        appendTime(builder, record.mTimeMillis);
+        builder.append(' ').append(record.mThreadId).append('/').append(record.mThreadName).append(' ');
+        builder.append(record.mPriority >= 0 && record.mPriority < PRIORITIES.length() ? PRIORITIES.charAt(record.mPriority) : '?');
+        builder.append('/').append(record.mTag).append(": ");
+        if(record.mCaller != null){
+            builder.append(LogUtils.getMetaInfo(record.mCaller));
+        }
+        String message = record.getMessage();
+        if(message != null){
+            builder.append(message);
+        }
+        builder.append('\n');
+        if(record.mThrowable != null){
+            StringWriter writer = new StringWriter();
+            record.mThrowable.printStackTrace(new PrintWriter(writer));
+            builder.append(writer.getBuffer());
+        }
+        try{
+            prepare();
+            encode(builder);
+        }catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 1件のログを書き込む前に呼ぶ<br>
+     * ファイルが maxFileBytes を超えていればローテーションし、新しいファイルでは {@link #onFileStarted()} を呼ぶ。
+     */
+    protected final void prepare() throws IOException{
+        // 既存のファイルに追記する場合はそのサイズから数える
+        getChannel();
+        if(!mIsFileStarted && mFileBytes > 0 && !isAppendable()){
+            // 前回のプロセスが残したファイルには追記せず、ローテーションして新しいファイルから始める
+            writeBuffer();
+            rotate();
+        }else if(mFileBytes + mBuffer.position() >= mMaxFileBytes){
+            // ログの途中でファイルが分かれないように書き込む前にローテーションする
+            writeBuffer();
+            rotate();
+        }
+        if(!mIsFileStarted){
+            mIsFileStarted = true;
+            onFileStarted();
+        }
+    }
+
+    /**
+     * このインスタンスで最初に書き込むときと、ローテーションした後に呼ばれる<br>
+     * ファイルごとのヘッダを {@link #writeBytes(byte[], int, int)} で書き込む場合にオーバーライドする。
+     */
+    protected void onFileStarted() throws IOException{
+    }
+
+    /**
+     * このインスタンスで最初に書き込むときに、既存のファイルに追記できるか<br>
+     * 前回のプロセスが途中まで書いたログの後に続けて読めない形式の場合は false を返す。
+     *
+     * @return false の場合は空でない既存のファイルをローテーションする
+     */
+    protected boolean isAppendable(){
+        return true;
+    }
+
+    /**
+     * バイト列をバッファに入れ、一杯になったらファイルに書き込む
+     */
+    protected final void writeBytes(byte[] bytes, int offset, int length) throws IOException{
+        ByteBuffer buffer = mBuffer;
+        while(length > 0){
+            if(!buffer.hasRemaining()){
+                writeBuffer();
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, count);
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private void appendTime(StringBuilder builder, long timeMillis){
+        Calendar calendar = mCalendar;
+        calendar.setTimeInMillis(timeMillis);
+        RollingFileSink.append2(builder, calendar.get(Calendar.MONTH) + 1).append('-');
+        RollingFileSink.append2(builder, calendar.get(Calendar.DAY_OF_MONTH)).append(' ');
+        RollingFileSink.append2(builder, calendar.get(Calendar.HOUR_OF_DAY)).append(':');
+        RollingFileSink.append2(builder, calendar.get(Calendar.MINUTE)).append(':');
+        RollingFileSink.append2(builder, calendar.get(Calendar.SECOND)).append('.');
+        int millis = calendar.get(Calendar.MILLISECOND);
+        builder.append((char)('0' + millis / 100)).append((char)('0' + millis / 10 % 10)).append((char)('0' + millis % 10));
+    }
+
+    private static StringBuilder append2(StringBuilder builder, int value){
+        return builder.append((char)('0' + value / 10)).append((char)('0' + value % 10));
+    }
+
+    /**
+     * 文字列をバッファにエンコードし、一杯になったらファイルに書き込む
+     */
+    private void encode(StringBuilder builder) throws IOException{
+        int length = builder.length();
+        if(mChars.length < length){
+            mChars = new char[Math.max(length, mChars.length * 2)];
+            mCharBuffer = CharBuffer.wrap(mChars);
+        }
+        builder.getChars(0, length, mChars, 0);
+        CharBuffer chars = mCharBuffer;
+        chars.clear();
+        chars.limit(length);
+        mEncoder.reset();
+        while(true){
+            CoderResult result = mEncoder.encode(chars, mBuffer, true);
+            if(result.isOverflow()){
+                writeBuffer();
+                continue;
+            }
+            if(result.isError()){
+                result.throwException();
+            }
+            break;
+        }
+        while(mEncoder.flush(mBuffer).isOverflow()){
+            writeBuffer();
+        }
+    }
+
+    /**
+     * バッファの内容をファイルに書き込む
+     */
+    private void writeBuffer() throws IOException{
+        mBuffer.flip();
+        try{
+            if(!mBuffer.hasRemaining()){
+                return;
+            }
+            FileChannel channel = getChannel();
+            while(mBuffer.hasRemaining()){
+                int count = channel.write(mBuffer);
+                mFileBytes += count;
+                mWrittenBytes += count;
+            }
+        }finally{
+            mBuffer.clear();
+        }
+    }
+
+    private FileChannel getChannel() throws IOException{
+        if(mChannel == null){
+            if(!mDirectory.isDirectory()){
+                mDirectory.mkdirs();
+            }
+            mChannel = new FileOutputStream(getFile(0), true).getChannel();
+            mFileBytes = mChannel.size();
+        }
+        return mChannel;
+    }
+
+    private void rotate() throws IOException{
+        if(mChannel != null){
+            mChannel.close();
+            mChannel = null;
+        }
+        mFileBytes = 0;
+        mIsFileStarted = false;
+        getFile(mMaxFiles - 1).delete();
+        for(int i = mMaxFiles - 2; i >= 0; i--){
+            File file = getFile(i);
+            if(file.exists()){
+                file.renameTo(getFile(i + 1));
+            }
+        }
+        // maxFiles が 1 の場合は名前を変えずに削除される
+        getFile(0).delete();
+        mRotationCount++;
+    }
+
+    @Override
+    public void flush(){
+        try{
+            writeBuffer();
+        }catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void close(){
+        flush();
+        if(mChannel != null){
+            try{
+                mChannel.close();
+            }catch(IOException e){
+                e.printStackTrace();
+            }
+            mChannel = null;
+        }
+    }
+
+    /**
+     * ファイルに書き込んだバイト数の合計
+     */
+    public long getWrittenBytes(){
+        return mWrittenBytes;
+    }
+
+    public int getRotationCount(){
+        return mRotationCount;
+    }
+
+}
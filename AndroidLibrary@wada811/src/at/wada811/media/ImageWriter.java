@@ -0,0 +1,430 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.media;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+import android.media.MediaScannerConnection;
+import android.os.Handler;
+import android.os.Looper;
+import at.wada811.utils.BitmapUtils;
+import at.wada811.utils.FileNameUtils;
+import at.wada811.utils.LogUtils;
+import at.wada811.utils.MediaUtils;
+import at.wada811.utils.ThreadUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.EventListener;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 画像をバックグラウンドで保存するキュー<br>
+ * 圧縮と書き込みを専用のスレッドで順番に行い、一時ファイルに書き込んでからリネームする。<br>
+ * メディアスキャンはキューが空になったときにまとめて1回で行う。<br>
+ * 連写などで保存待ちが maxQueueSize を超えた画像は保存せずに失敗を通知する。
+ *
+ * <pre>
+ * ImageWriter writer = MediaUtils.getImageWriter(context);
+ * writer.write(bitmap, filePath, null); // bitmap は保存後に破棄される
+ * </pre>
+ */
+public class ImageWriter {
+
+    /**
+     * 保存が終わったときにメインスレッドで呼ばれるリスナー
+     */
+    public interface OnImageWrittenListener extends EventListener {
+
+        /**
+         * @param filePath
+         * @param success
+         */
+        public void onImageWritten(String filePath, boolean success);
+    }
+
+    private static final class Job {
+
+        private final Bitmap mBitmap;
+        private final byte[] mData;
+        private final String mFilePath;
+        private final OnImageWrittenListener mListener;
+        private final long mEnqueuedAt = System.nanoTime();
+
+        private Job(Bitmap bitmap, byte[] data, String filePath, OnImageWrittenListener listener) {
+            mBitmap = bitmap;
+            mData = data;
+            mFilePath = filePath;
+            mListener = listener;
+        }
+    }
+
+    /**
+     * 内部のバッファをそのまま書き込める ByteArrayOutputStream
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        private Buffer(int size) {
+            super(size);
+        }
+
+        private void writeTo(FileChannel channel) throws IOException{
+            ByteBuffer buffer = ByteBuffer.wrap(buf, 0, count);
+            while(buffer.hasRemaining()){
+                channel.write(buffer);
+            }
+        }
+
+        private int capacity(){
+            return buf.length;
+        }
+    }
+
+    /** デフォルトの保存待ちの最大数 */
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 8;
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int INITIAL_BUFFER_SIZE = 1024 * 1024;
+    /** これより大きくなったバッファは使い終わったら捨てる */
+    private static final int MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+    /** 1回のメディアスキャンにまとめる最大数 */
+    private static final int MAX_SCAN_BATCH = 32;
+    /** 停止の合図 */
+    private static final Job QUIT = new Job(null, null, null, null);
+
+    private final Context mContext;
+    private final LinkedBlockingQueue<Job> mQueue = new LinkedBlockingQueue<Job>();
+    /** mQueue への追加と shutdown を排他する */
+    private final Object mQueueLock = new Object();
+    private final int mMaxQueueSize;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final List<String> mScanPaths = new ArrayList<String>();
+    private final List<String> mScanMimeTypes = new ArrayList<String>();
+    private final Thread mThread;
+    private Buffer mBuffer;
+    private volatile boolean mIsScanEnabled = true;
+    private volatile boolean mIsShutdown = false;
+
+    private final Object mStatsLock = new Object();
+    private int mWrittenCount;
+    private int mFailedCount;
+    private int mRejectedCount;
+    private int mMaxQueueDepth;
+    private long mTotalLatencyNanos;
+    private long mMaxLatencyNanos;
+
+    /**
+     * @param context
+     */
+    public ImageWriter(Context context) {
+        this(context, DEFAULT_MAX_QUEUE_SIZE);
+    }
+
+    /**
+     * @param context
+     * @param maxQueueSize 保存待ちの最大数 (Bitmap を保持したまま溜まり続けないように制限する)
+     */
+    public ImageWriter(Context context, int maxQueueSize) {
+        if(maxQueueSize < 1){
+            throw new IllegalArgumentException("maxQueueSize must be positive: " + maxQueueSize);
+        }
+        mContext = context.getApplicationContext();
+        mMaxQueueSize = maxQueueSize;
+        mThread = ThreadUtils.newBackgroundThreadFactory(ImageWriter.class.getSimpleName()).newThread(new Runnable(){
+            @Override
+            public void run(){
+                loop();
+            }
+        });
+        mThread.start();
+    }
+
+    /**
+     * 保存したファイルをメディアスキャンするかどうかを設定する
+     *
+     * @param enabled
+     */
+    public void setScanEnabled(boolean enabled){
+        mIsScanEnabled = enabled;
+    }
+
+    /**
+     * Bitmap を圧縮して保存する<br>
+     * 形式は拡張子で決まる。bitmap は保存後に {@link BitmapUtils#recycle(Bitmap)} で破棄するので、
+     * 呼び出し後に使ってはいけない。
+     *
+     * @param bitmap
+     * @param filePath
+     * @param listener
+     * @return 保存待ちが一杯で保存しない場合は false (bitmap は破棄し、listener には失敗を通知する)
+     */
+    public boolean write(Bitmap bitmap, String filePath, OnImageWrittenListener listener){
+        return enqueue(new Job(bitmap, null, filePath, listener));
+    }
+
+    /**
+     * 圧縮済みのデータを保存する
+     *
+     * @param data
+     * @param filePath
+     * @param listener
+     * @return 保存待ちが一杯で保存しない場合は false (listener には失敗を通知する)
+     */
+    public boolean write(byte[] data, String filePath, OnImageWrittenListener listener){
+        return enqueue(new Job(null, data, filePath, listener));
+    }
+
+    private boolean enqueue(Job job){
+        boolean accepted = false;
+        int depth;
+        synchronized(mQueueLock){
+            // shutdown と同じロックで確認するので、QUIT より後に追加されて処理されないジョブは無い
+            if(mIsShutdown){
+                throw new IllegalStateException(ImageWriter.class.getSimpleName() + " is already shut down");
+            }
+            depth = mQueue.size();
+            if(depth < mMaxQueueSize){
+                mQueue.add(job);
+                accepted = true;
+                depth++;
+            }
+        }
+        synchronized(mStatsLock){
+            if(!accepted){
+                mRejectedCount++;
+            }else if(depth > mMaxQueueDepth){
+                mMaxQueueDepth = depth;
+            }
+        }
+        if(!accepted){
+            if(job.mBitmap != null){
+                BitmapUtils.recycle(job.mBitmap);
+            }
+            notifyWritten(job, false);
+        }
+        return accepted;
+    }
+
+    private void loop(){
+        try{
+            while(true){
+                Job job = mQueue.take();
+                if(job == QUIT){
+                    break;
+                }
+                process(job);
+                if(mQueue.isEmpty() || mScanPaths.size() >= MAX_SCAN_BATCH){
+                    scan();
+                }
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }finally{
+            scan();
+            mBuffer = null;
+        }
+    }
+
+    private void process(Job job){
+        boolean success = false;
+        try{
+            success = writeFile(job);
+        }catch(IOException e){
+            LogUtils.e(job.mFilePath, e);
+        }catch(RuntimeException e){
+            LogUtils.e(job.mFilePath, e);
+        }catch(OutOfMemoryError e){
+            LogUtils.e(job.mFilePath, e);
+            mBuffer = null;
+        }finally{
+            if(job.mBitmap != null){
+                BitmapUtils.recycle(job.mBitmap);
+            }
+        }
+        long latency = System.nanoTime() - job.mEnqueuedAt;
+        synchronized(mStatsLock){
+            if(success){
+                mWrittenCount++;
+            }else{
+                mFailedCount++;
+            }
+            mTotalLatencyNanos += latency;
+            if(latency > mMaxLatencyNanos){
+                mMaxLatencyNanos = latency;
+            }
+        }
+        if(success && mIsScanEnabled){
+            mScanPaths.add(job.mFilePath);
+            mScanMimeTypes.add(MediaUtils.getMimeType(job.mFilePath));
+        }
+        notifyWritten(job, success);
+    }
+
+    private void notifyWritten(final Job job, final boolean success){
+        if(job.mListener != null){
+            mHandler.post(new Runnable(){
+                @Override
+                public void run(){
+                    job.mListener.onImageWritten(job.mFilePath, success);
+                }
+            });
+        }
+    }
+
+    private boolean writeFile(Job job) throws IOException{
+        Buffer buffer = null;
+        if(job.mBitmap != null){
+            buffer = obtainBuffer();
+            CompressFormat format = MediaUtils.getCompressFormat(FileNameUtils.getExtension(job.mFilePath));
+            if(!job.mBitmap.compress(format, MediaUtils.DEFAULT_COMPRESS_QUALITY, buffer)){
+                return false;
+            }
+        }
+        File file = new File(job.mFilePath);
+        File temp = new File(job.mFilePath + TEMP_SUFFIX);
+        FileOutputStream fos = new FileOutputStream(temp);
+        boolean written = false;
+        try{
+            FileChannel channel = fos.getChannel();
+            if(buffer != null){
+                buffer.writeTo(channel);
+            }else{
+                ByteBuffer data = ByteBuffer.wrap(job.mData);
+                while(data.hasRemaining()){
+                    channel.write(data);
+                }
+            }
+            fos.getFD().sync();
+            written = true;
+        }finally{
+            fos.close();
+            if(buffer != null && buffer.capacity() > MAX_BUFFER_SIZE){
+                mBuffer = null;
+            }
+            if(!written){
+                temp.delete();
+            }
+        }
+        if(!temp.renameTo(file)){
+            // 元のファイルを消すと両方失うことがあるので、元のファイルも一時ファイルも残して失敗にする
+            LogUtils.e("failed to rename " + temp.getAbsolutePath() + " to " + file.getAbsolutePath());
+            return false;
+        }
+        return true;
+    }
+
+    private Buffer obtainBuffer(){
+        if(mBuffer == null){
+            mBuffer = new Buffer(INITIAL_BUFFER_SIZE);
+        }
+        mBuffer.reset();
+        return mBuffer;
+    }
+
+    private void scan(){
+        if(mScanPaths.isEmpty()){
+            return;
+        }
+        String[] paths = mScanPaths.toArray(new String[mScanPaths.size()]);
+        String[] mimeTypes = mScanMimeTypes.toArray(new String[mScanMimeTypes.size()]);
+        mScanPaths.clear();
+        mScanMimeTypes.clear();
+        MediaScannerConnection.scanFile(mContext, paths, mimeTypes, null);
+    }
+
+    /**
+     * 保存待ちの数
+     */
+    public int getQueueDepth(){
+        return mQueue.size();
+    }
+
+    /**
+     * 保存待ちの数の最大値
+     */
+    public int getMaxQueueDepth(){
+        synchronized(mStatsLock){
+            return mMaxQueueDepth;
+        }
+    }
+
+    public int getWrittenCount(){
+        synchronized(mStatsLock){
+            return mWrittenCount;
+        }
+    }
+
+    public int getFailedCount(){
+        synchronized(mStatsLock){
+            return mFailedCount;
+        }
+    }
+
+    /**
+     * 保存待ちが一杯で保存しなかった数
+     */
+    public int getRejectedCount(){
+        synchronized(mStatsLock){
+            return mRejectedCount;
+        }
+    }
+
+    /**
+     * キューに入れてから保存し終わるまでの平均時間 (ミリ秒)
+     */
+    public double getAverageLatencyMillis(){
+        synchronized(mStatsLock){
+            int count = mWrittenCount + mFailedCount;
+            return count == 0 ? 0 : mTotalLatencyNanos / 1000000.0 / count;
+        }
+    }
+
+    /**
+     * キューに入れてから保存し終わるまでの最大時間 (ミリ秒)
+     */
+    public long getMaxLatencyMillis(){
+        synchronized(mStatsLock){
+            return mMaxLatencyNanos / 1000000;
+        }
+    }
+
+    /**
+     * キューに入っている画像を全て保存してからスレッドを停止する
+     */
+    public void shutdown(){
+        synchronized(mQueueLock){
+            if(mIsShutdown){
+                return;
+            }
+            mIsShutdown = true;
+            mQueue.add(QUIT);
+        }
+    }
+
+    @Override
+    public String toString(){
+        synchronized(mStatsLock){
+            return ImageWriter.class.getSimpleName() + "[queue=" + mQueue.size() + ", maxQueue=" + mMaxQueueDepth + ", written=" + mWrittenCount + ", failed=" + mFailedCount + ", rejected=" + mRejectedCount + ", avgLatency="
+                + String.format("%.1f", getAverageLatencyMillis()) + "ms, maxLatency=" + getMaxLatencyMillis() + "ms]";
+        }
+    }
+
+}
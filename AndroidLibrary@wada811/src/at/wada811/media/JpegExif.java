@@ -0,0 +1,276 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.media;
+
+import android.media.ExifInterface;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * JPEG のバイト列の Exif の向きだけを書き換えて保存する<br>
+ * 画像データはデコードも再圧縮もせずにそのまま書き込む。
+ */
+public class JpegExif {
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+    private static final byte[] EXIF_HEADER = {
+        'E', 'x', 'i', 'f', 0, 0
+    };
+
+    private JpegExif() {
+    }
+
+    /**
+     * 時計回りの回転角を Exif の Orientation の値に変換する
+     *
+     * @param degrees 0, 90, 180, 270
+     * @return {@link ExifInterface#ORIENTATION_NORMAL} など
+     */
+    public static int toExifOrientation(int degrees){
+        switch((degrees % 360 + 360) % 360){
+            case 90:
+                return ExifInterface.ORIENTATION_ROTATE_90;
+            case 180:
+                return ExifInterface.ORIENTATION_ROTATE_180;
+            case 270:
+                return ExifInterface.ORIENTATION_ROTATE_270;
+            default:
+                return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * Exif の APP1 セグメントを探す
+     *
+     * @param jpeg
+     * @return セグメントの先頭の位置、無い場合は -1
+     */
+    private static int findExifSegment(byte[] jpeg){
+        if(!JpegExif.isJpeg(jpeg)){
+            return -1;
+        }
+        int offset = 2;
+        while(offset + 4 <= jpeg.length){
+            if((jpeg[offset] & 0xFF) != 0xFF){
+                return -1;
+            }
+            int marker = jpeg[offset + 1] & 0xFF;
+            if(marker == 0xFF){
+                // 詰め物
+                offset++;
+                continue;
+            }
+            if(marker == MARKER_SOS || marker == MARKER_EOI){
+                return -1;
+            }
+            int length = JpegExif.readShort(jpeg, offset + 2, true);
+            if(length < 2 || offset + 2 + length > jpeg.length){
+                return -1;
+            }
+            if(marker == MARKER_APP1 && JpegExif.startsWith(jpeg, offset + 4, EXIF_HEADER)){
+                return offset;
+            }
+            offset += 2 + length;
+        }
+        return -1;
+    }
+
+    /**
+     * IFD0 の Orientation の値の位置を探す
+     *
+     * @param jpeg
+     * @param tiff TIFF ヘッダの位置
+     * @param end セグメントの終わり
+     * @param bigEndian
+     * @return 値の位置、無い場合は -1
+     */
+    private static int findOrientation(byte[] jpeg, int tiff, int end, boolean bigEndian){
+        long ifd = tiff + (JpegExif.readInt(jpeg, tiff + 4, bigEndian) & 0xFFFFFFFFL);
+        if(ifd + 2 > end){
+            return -1;
+        }
+        int count = JpegExif.readShort(jpeg, (int)ifd, bigEndian);
+        for(int i = 0; i < count; i++){
+            int entry = (int)ifd + 2 + i * 12;
+            if(entry + 12 > end){
+                return -1;
+            }
+            if(JpegExif.readShort(jpeg, entry, bigEndian) == TAG_ORIENTATION){
+                return JpegExif.readShort(jpeg, entry + 2, bigEndian) == TYPE_SHORT ? entry + 8 : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Exif の Orientation をバイト列の中で直接書き換える
+     *
+     * @param jpeg
+     * @param degrees 時計回りの回転角
+     * @return Orientation が無く書き換えられなかった場合は false
+     */
+    public static boolean setOrientation(byte[] jpeg, int degrees){
+        int segment = JpegExif.findExifSegment(jpeg);
+        if(segment < 0){
+            return false;
+        }
+        int tiff = segment + 4 + EXIF_HEADER.length;
+        int end = segment + 2 + JpegExif.readShort(jpeg, segment + 2, true);
+        if(tiff + 8 > end){
+            return false;
+        }
+        boolean bigEndian;
+        if(jpeg[tiff] == 'M' && jpeg[tiff + 1] == 'M'){
+            bigEndian = true;
+        }else if(jpeg[tiff] == 'I' && jpeg[tiff + 1] == 'I'){
+            bigEndian = false;
+        }else{
+            return false;
+        }
+        int offset = JpegExif.findOrientation(jpeg, tiff, end, bigEndian);
+        if(offset < 0){
+            return false;
+        }
+        int value = JpegExif.toExifOrientation(degrees);
+        if(bigEndian){
+            jpeg[offset] = (byte)(value >> 8);
+            jpeg[offset + 1] = (byte)value;
+        }else{
+            jpeg[offset] = (byte)value;
+            jpeg[offset + 1] = (byte)(value >> 8);
+        }
+        return true;
+    }
+
+    /**
+     * Orientation だけを持つ Exif の APP1 セグメントを生成する
+     *
+     * @param degrees 時計回りの回転角
+     * @return segment
+     */
+    public static byte[] createOrientationSegment(int degrees){
+        ByteBuffer buffer = ByteBuffer.allocate(36);
+        buffer.put((byte)0xFF).put((byte)MARKER_APP1).putShort((short)34);
+        buffer.put(EXIF_HEADER);
+        // TIFF ヘッダ (ビッグエンディアン)
+        buffer.put((byte)'M').put((byte)'M').putShort((short)42).putInt(8);
+        // IFD0
+        buffer.putShort((short)1);
+        buffer.putShort((short)TAG_ORIENTATION).putShort((short)TYPE_SHORT).putInt(1);
+        buffer.putShort((short)JpegExif.toExifOrientation(degrees)).putShort((short)0);
+        buffer.putInt(0);
+        return buffer.array();
+    }
+
+    /**
+     * 画像データを変えずに Exif の Orientation だけを設定して保存する<br>
+     * Orientation があればバイト列を直接書き換え、Exif が無ければ APP1 セグメントを挿入して書き込む。
+     *
+     * @param jpeg 書き換える場合があるので呼び出し元で再利用しないこと
+     * @param degrees 時計回りの回転角
+     * @param file
+     * @throws IOException
+     */
+    public static void write(byte[] jpeg, int degrees, File file) throws IOException{
+        ByteBuffer[] buffers;
+        boolean needsExifInterface = false;
+        if(JpegExif.setOrientation(jpeg, degrees)){
+            buffers = new ByteBuffer[]{
+                ByteBuffer.wrap(jpeg)
+            };
+        }else if(JpegExif.isJpeg(jpeg) && JpegExif.findExifSegment(jpeg) < 0){
+            int insert = JpegExif.getExifInsertOffset(jpeg);
+            buffers = new ByteBuffer[]{
+                ByteBuffer.wrap(jpeg, 0, insert), ByteBuffer.wrap(JpegExif.createOrientationSegment(degrees)), ByteBuffer.wrap(jpeg, insert, jpeg.length - insert)
+            };
+        }else{
+            // Exif はあるが Orientation が無い場合
+            buffers = new ByteBuffer[]{
+                ByteBuffer.wrap(jpeg)
+            };
+            needsExifInterface = JpegExif.isJpeg(jpeg);
+        }
+        FileOutputStream fos = new FileOutputStream(file);
+        try{
+            FileChannel channel = fos.getChannel();
+            long remaining = 0;
+            for(ByteBuffer buffer : buffers){
+                remaining += buffer.remaining();
+            }
+            while(remaining > 0){
+                remaining -= channel.write(buffers);
+            }
+        }finally{
+            fos.close();
+        }
+        if(needsExifInterface){
+            ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+            exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(JpegExif.toExifOrientation(degrees)));
+            exif.saveAttributes();
+        }
+    }
+
+    private static boolean isJpeg(byte[] jpeg){
+        return jpeg.length > 4 && (jpeg[0] & 0xFF) == 0xFF && (jpeg[1] & 0xFF) == MARKER_SOI;
+    }
+
+    /**
+     * JFIF の APP0 がある場合はその直後、無い場合は SOI の直後
+     */
+    private static int getExifInsertOffset(byte[] jpeg){
+        if((jpeg[2] & 0xFF) == 0xFF && (jpeg[3] & 0xFF) == MARKER_APP0 && jpeg.length >= 6){
+            int end = 4 + JpegExif.readShort(jpeg, 4, true);
+            if(end <= jpeg.length){
+                return end;
+            }
+        }
+        return 2;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, byte[] prefix){
+        if(offset + prefix.length > data.length){
+            return false;
+        }
+        for(int i = 0; i < prefix.length; i++){
+            if(data[offset + i] != prefix[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readShort(byte[] data, int offset, boolean bigEndian){
+        int b0 = data[offset] & 0xFF;
+        int b1 = data[offset + 1] & 0xFF;
+        return bigEndian ? (b0 << 8) | b1 : (b1 << 8) | b0;
+    }
+
+    private static int readInt(byte[] data, int offset, boolean bigEndian){
+        int high = JpegExif.readShort(data, offset, bigEndian);
+        int low = JpegExif.readShort(data, offset + 2, bigEndian);
+        return bigEndian ? (high << 16) | low : (low << 16) | high;
+    }
+
+}
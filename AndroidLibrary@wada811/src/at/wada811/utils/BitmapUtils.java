@@ -15,11 +15,13 @@
  */
 package at.wada811.utils;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
 import android.graphics.Canvas;
 import android.graphics.ImageFormat;
 import android.graphics.Matrix;
@@ -30,18 +32,180 @@ import android.graphics.Rect;
 import android.graphics.YuvImage;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.media.ExifInterface;
 import android.net.Uri;
+import android.os.Build;
 import android.provider.MediaStore;
 import android.util.Base64;
+import android.util.Base64InputStream;
+import android.util.Base64OutputStream;
 import at.wada811.android.library.R;
+import at.wada811.graphics.BitmapCache;
+import at.wada811.graphics.BitmapPool;
+import at.wada811.graphics.BitmapTransform;
+import at.wada811.graphics.FrameBufferPool;
+import at.wada811.graphics.SamplingPlan;
+import at.wada811.graphics.TiledBitmapDecoder;
+import at.wada811.graphics.YuvDecoder;
+import at.wada811.io.FileDigester;
+import at.wada811.io.ReaderInputStream;
+import at.wada811.io.WriterOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 
 public class BitmapUtils {
 
+    /** Base64 のストリームのバッファサイズ */
+    private static final int BASE64_BUFFER_SIZE = 16 * 1024;
+
+    /** {@link #decodeYUV420SPParallel(int[], byte[], int, int)} で使うデコーダ */
+    private static YuvDecoder sYuvDecoder;
+    /** create* / loadBitmap で使うキャッシュ */
+    private static volatile BitmapCache sBitmapCache;
+    /** サイズを指定したデコードで再利用する Bitmap のプール */
+    private static volatile BitmapPool sBitmapPool;
+    /** サイズを指定したデコードのバイト数の上限 */
+    private static volatile long sMaxDecodeBytes = 0;
+
+    /**
+     * create* / loadBitmap でデコードした Bitmap をキャッシュする<br>
+     * キャッシュした Bitmap は共有されるので、呼び出し元で recycle してはいけない。
+     * 
+     * @param cache null の場合はキャッシュしない
+     */
+    public static void setBitmapCache(BitmapCache cache){
+        sBitmapCache = cache;
+    }
+
+    /**
+     * @return 設定されていない場合は null
+     */
+    public static BitmapCache getBitmapCache(){
+        return sBitmapCache;
+    }
+
+    private static BitmapCache.Key createCacheKey(Object source, int width, int height){
+        return sBitmapCache == null ? null : new BitmapCache.Key(source, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Base64 の文字列をそのままキーにするとキャッシュが文字列全体を保持し続けるので、ハッシュ値をキーにする
+     */
+    private static BitmapCache.Key createBase64CacheKey(String base64str){
+        if(sBitmapCache == null){
+            return null;
+        }
+        try{
+            byte[] digest = FileDigester.getDefault(FileDigester.Algorithm.SHA_256).digest(new ReaderInputStream(new StringReader(base64str)));
+            return BitmapUtils.createCacheKey("base64:" + FileDigester.toHex(digest), 0, 0);
+        }catch(IOException e){
+            LogUtils.e(e);
+            return null;
+        }
+    }
+
+    private static Bitmap getCachedBitmap(BitmapCache.Key key){
+        BitmapCache cache = sBitmapCache;
+        return key == null || cache == null ? null : cache.get(key);
+    }
+
+    private static Bitmap putCachedBitmap(BitmapCache.Key key, Bitmap bitmap){
+        BitmapCache cache = sBitmapCache;
+        if(key != null && cache != null && bitmap != null){
+            cache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * サイズを指定したデコードのバイト数の上限を設定する<br>
+     * 上限を超える場合は要求サイズより小さくデコードする。
+     * 
+     * @param maxBytes 0 以下の場合は制限しない
+     */
+    public static void setMaxDecodeBytes(long maxBytes){
+        sMaxDecodeBytes = maxBytes;
+    }
+
+    /**
+     * サイズを指定したデコードの縮小方法を計算する
+     * 
+     * @param options inJustDecodeBounds でデコードした outWidth, outHeight
+     * @param width
+     * @param height
+     * @return plan
+     */
+    public static SamplingPlan createSamplingPlan(BitmapFactory.Options options, int width, int height){
+        return SamplingPlan.create(options, width, height, sMaxDecodeBytes, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * サイズを指定したデコードで {@link BitmapFactory.Options#inBitmap} に使うプールを設定する
+     * 
+     * @param pool null の場合は再利用しない
+     */
+    public static void setBitmapPool(BitmapPool pool){
+        sBitmapPool = pool;
+    }
+
+    /**
+     * @return 設定されていない場合は null
+     */
+    public static BitmapPool getBitmapPool(){
+        return sBitmapPool;
+    }
+
+    /**
+     * Bitmap を破棄する<br>
+     * BitmapPool が設定されていれば再利用するためにプールに戻す。<br>
+     * キャッシュが保持している Bitmap は他でも使われているので何もしない (キャッシュから追い出されたときに破棄される)。
+     * 
+     * @param bitmap
+     */
+    public static void recycle(Bitmap bitmap){
+        if(bitmap == null || bitmap.isRecycled()){
+            return;
+        }
+        BitmapCache cache = sBitmapCache;
+        if(cache != null && cache.containsBitmap(bitmap)){
+            return;
+        }
+        BitmapPool pool = sBitmapPool;
+        if(pool != null){
+            pool.put(bitmap);
+        }else{
+            bitmap.recycle();
+        }
+    }
+
+    private static boolean applyInBitmap(BitmapFactory.Options options){
+        BitmapPool pool = sBitmapPool;
+        return pool != null && pool.applyInBitmap(options);
+    }
+
+    /**
+     * inBitmap でデコードできなかったときに inBitmap をプールに戻す
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void clearInBitmap(BitmapFactory.Options options){
+        Bitmap inBitmap = options.inBitmap;
+        options.inBitmap = null;
+        BitmapPool pool = sBitmapPool;
+        if(pool != null){
+            pool.put(inBitmap);
+        }
+    }
+
     /**
      * width, height を指定して inSampleSize を計算する
      * 
@@ -49,6 +213,7 @@ public class BitmapUtils {
      * @param width
      * @param height
      * @return inSampleSize
+     * @see SamplingPlan
      */
     public static int calculateInSampleSize(BitmapFactory.Options options, int width, int height){
         // 画像の元サイズ
@@ -116,7 +281,28 @@ public class BitmapUtils {
     }
 
     /**
-     * YUVデータからBitmapを生成する
+     * {@link #decodeYUV420SP(int[], byte[], int, int)} と同じ結果を複数スレッドで計算する
+     * 
+     * @param rgb
+     * @param yuv420sp
+     * @param width
+     * @param height
+     * @see YuvDecoder
+     */
+    public static void decodeYUV420SPParallel(int[] rgb, byte[] yuv420sp, int width, int height){
+        BitmapUtils.getYuvDecoder().decode(rgb, yuv420sp, width, height);
+    }
+
+    private static synchronized YuvDecoder getYuvDecoder(){
+        if(sYuvDecoder == null){
+            sYuvDecoder = new YuvDecoder();
+        }
+        return sYuvDecoder;
+    }
+
+    /**
+     * YUVデータからBitmapを生成する<br>
+     * NV21 と YUY2 は JPEG を経由せずに直接変換する。それ以外は {@link #decodeYuvData(byte[], int, int, int)} を使う。
      * 
      * @param context
      * @param yuvData
@@ -128,12 +314,111 @@ public class BitmapUtils {
     public static Bitmap createBitmapFromYuv(Context context, byte[] yuvData, int width, int height){
         String key = context.getString(R.string.keyPreviewFormat);
         int imageFormat = PreferenceUtils.getInt(context, key, ImageFormat.NV21);
+        if(BitmapUtils.canDecodeYuvDirectly(imageFormat)){
+            return BitmapUtils.createBitmapFromYuv(yuvData, imageFormat, width, height, null, null);
+        }
+        return BitmapUtils.createBitmapFromYuvViaJpeg(yuvData, imageFormat, width, height);
+    }
+
+    /**
+     * YUVデータから JPEG を経由して Bitmap を生成する
+     * 
+     * @param yuvData
+     * @param imageFormat
+     *        ImageFormat.NV21 | ImageFormat.YUY2
+     * @param width
+     * @param height
+     * @return bitmap
+     */
+    public static Bitmap createBitmapFromYuvViaJpeg(byte[] yuvData, int imageFormat, int width, int height){
         byte[] rgbData = BitmapUtils.decodeYuvData(yuvData, imageFormat, width, height);
         final Bitmap bitmap = BitmapUtils.createBitmapFromByteArray(rgbData);
         rgbData = null;
         return bitmap;
     }
 
+    /**
+     * YUVデータを JPEG を経由せずに Bitmap に書き込む<br>
+     * 同じサイズの可変な Bitmap と int 配列を渡すと再利用するのでフレームごとのメモリ確保が発生しない。
+     * 
+     * @param yuvData
+     * @param imageFormat
+     *        ImageFormat.NV21 | ImageFormat.YUY2
+     * @param width
+     * @param height
+     * @param rgb
+     *        width * height 以上の長さの作業領域 (null の場合は確保する)
+     * @param bitmap
+     *        書き込み先の可変な ARGB_8888 の Bitmap (null かサイズが異なる場合は生成する)
+     * @return bitmap
+     */
+    public static Bitmap createBitmapFromYuv(byte[] yuvData, int imageFormat, int width, int height, int[] rgb, Bitmap bitmap){
+        if(rgb == null || rgb.length < width * height){
+            rgb = new int[width * height];
+        }
+        BitmapUtils.decodeYuvToRgb(yuvData, imageFormat, width, height, rgb);
+        if(bitmap == null || !bitmap.isMutable() || bitmap.isRecycled() || bitmap.getWidth() != width || bitmap.getHeight() != height){
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        bitmap.setPixels(rgb, 0, width, 0, 0, width, height);
+        return bitmap;
+    }
+
+    /**
+     * YUVデータを JPEG を経由せずにプールから取得した Bitmap に書き込む<br>
+     * 使い終わった Bitmap は {@link FrameBufferPool#recycleBitmap(Bitmap)} で返却する。
+     * 
+     * @param yuvData
+     * @param imageFormat
+     *        ImageFormat.NV21 | ImageFormat.YUY2
+     * @param width
+     * @param height
+     * @param pool
+     * @return bitmap
+     */
+    public static Bitmap createBitmapFromYuv(byte[] yuvData, int imageFormat, int width, int height, FrameBufferPool pool){
+        int[] rgb = pool.obtainArgbBuffer(width, height);
+        try{
+            return BitmapUtils.createBitmapFromYuv(yuvData, imageFormat, width, height, rgb, pool.obtainBitmap(width, height));
+        }finally{
+            pool.recycleArgbBuffer(rgb);
+        }
+    }
+
+    /**
+     * YUVデータを JPEG を経由せずに ARGB 配列に変換する
+     * 
+     * @param yuvData
+     * @param imageFormat
+     *        ImageFormat.NV21 | ImageFormat.YUY2
+     * @param width
+     * @param height
+     * @param rgb
+     *        width * height 以上の長さの出力先
+     */
+    public static void decodeYuvToRgb(byte[] yuvData, int imageFormat, int width, int height, int[] rgb){
+        switch(imageFormat){
+            case ImageFormat.NV21:
+                BitmapUtils.getYuvDecoder().decode(rgb, yuvData, width, height);
+                break;
+            case ImageFormat.YUY2:
+                BitmapUtils.getYuvDecoder().decodeYuy2(rgb, yuvData, width, height);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported imageFormat: " + imageFormat);
+        }
+    }
+
+    /**
+     * JPEG を経由せずに変換できるフォーマットかどうか
+     * 
+     * @param imageFormat
+     * @return ImageFormat.NV21 | ImageFormat.YUY2 の場合は true
+     */
+    public static boolean canDecodeYuvDirectly(int imageFormat){
+        return imageFormat == ImageFormat.NV21 || imageFormat == ImageFormat.YUY2;
+    }
+
     /**
      * YUV420SP(Androidのカメラで撮影された生データのbyte配列)を
      * 一旦JPEGデータに変換してBitmapに変換可能なbyte配列に変換する。
@@ -211,9 +496,18 @@ public class BitmapUtils {
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeByteArray(data, 0, data.length, options);
-        options.inSampleSize = BitmapUtils.calculateInSampleSize(options, width, height);
-        options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        SamplingPlan plan = BitmapUtils.createSamplingPlan(options, width, height);
+        plan.apply(options);
+        boolean reuse = BitmapUtils.applyInBitmap(options);
+        try{
+            return plan.restoreDensity(BitmapFactory.decodeByteArray(data, 0, data.length, options));
+        }catch(IllegalArgumentException e){
+            if(!reuse){
+                throw e;
+            }
+            BitmapUtils.clearInBitmap(options);
+            return plan.restoreDensity(BitmapFactory.decodeByteArray(data, 0, data.length, options));
+        }
     }
 
     /**
@@ -222,8 +516,34 @@ public class BitmapUtils {
      * @param base64str
      */
     public static Bitmap createBitmapFromBase64(String base64str){
-        byte[] decode = Base64.decode(base64str, Base64.DEFAULT);
-        return BitmapUtils.createBitmapFromByteArray(decode);
+        BitmapCache.Key key = BitmapUtils.createBase64CacheKey(base64str);
+        Bitmap cached = BitmapUtils.getCachedBitmap(key);
+        if(cached != null){
+            return cached;
+        }
+        return BitmapUtils.putCachedBitmap(key, BitmapUtils.createBitmapFromBase64(new StringReader(base64str)));
+    }
+
+    /**
+     * Base64 の文字列を読み込みながらデコードする<br>
+     * デコード後のバイト列全体をメモリに展開しない。
+     * 
+     * @param reader
+     * @return bitmap
+     */
+    public static Bitmap createBitmapFromBase64(Reader reader){
+        return BitmapUtils.createBitmapFromBase64(new ReaderInputStream(reader));
+    }
+
+    /**
+     * Base64 のバイト列を読み込みながらデコードする<br>
+     * デコード後のバイト列全体をメモリに展開しない。
+     * 
+     * @param is
+     * @return bitmap
+     */
+    public static Bitmap createBitmapFromBase64(InputStream is){
+        return BitmapFactory.decodeStream(new BufferedInputStream(new Base64InputStream(is, Base64.DEFAULT), BASE64_BUFFER_SIZE));
     }
 
     /**
@@ -233,7 +553,12 @@ public class BitmapUtils {
      * @param resId
      */
     public static Bitmap createBitmapFromResource(Context context, int resId){
-        return BitmapFactory.decodeResource(context.getResources(), resId);
+        BitmapCache.Key key = BitmapUtils.createCacheKey(resId, 0, 0);
+        Bitmap cached = BitmapUtils.getCachedBitmap(key);
+        if(cached != null){
+            return cached;
+        }
+        return BitmapUtils.putCachedBitmap(key, BitmapFactory.decodeResource(context.getResources(), resId));
     }
 
     /**
@@ -264,7 +589,12 @@ public class BitmapUtils {
      * @return
      */
     public static Bitmap createBitmapFromFile(String filePath){
-        return BitmapFactory.decodeFile(filePath);
+        BitmapCache.Key key = BitmapUtils.createCacheKey(filePath, 0, 0);
+        Bitmap cached = BitmapUtils.getCachedBitmap(key);
+        if(cached != null){
+            return cached;
+        }
+        return BitmapUtils.putCachedBitmap(key, BitmapFactory.decodeFile(filePath));
     }
 
     /**
@@ -276,16 +606,80 @@ public class BitmapUtils {
      * @return
      */
     public static Bitmap createBitmapFromFile(String filePath, int width, int height){
+        BitmapCache.Key key = BitmapUtils.createCacheKey(filePath, width, height);
+        Bitmap cached = BitmapUtils.getCachedBitmap(key);
+        if(cached != null){
+            return cached;
+        }
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeFile(filePath, options);
-        options.inSampleSize = BitmapUtils.calculateInSampleSize(options, width, height);
-        options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeFile(filePath, options);
+        SamplingPlan plan = BitmapUtils.createSamplingPlan(options, width, height);
+        plan.apply(options);
+        boolean reuse = BitmapUtils.applyInBitmap(options);
+        Bitmap bitmap;
+        try{
+            bitmap = BitmapFactory.decodeFile(filePath, options);
+        }catch(IllegalArgumentException e){
+            if(!reuse){
+                throw e;
+            }
+            BitmapUtils.clearInBitmap(options);
+            bitmap = BitmapFactory.decodeFile(filePath, options);
+        }
+        return BitmapUtils.putCachedBitmap(key, plan.restoreDensity(bitmap));
+    }
+
+    /**
+     * ファイルの指定した範囲だけをデコードする<br>
+     * 画像全体は展開しないので、メモリに収まらない大きさの画像にも使える。
+     * 
+     * @param filePath
+     * @param rect 元画像の座標での範囲
+     * @param width
+     * @param height
+     * @return 失敗した場合は null
+     * @see TiledBitmapDecoder
+     */
+    @TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+    public static Bitmap createBitmapFromFile(String filePath, Rect rect, int width, int height){
+        BitmapRegionDecoder decoder = null;
+        try{
+            decoder = BitmapRegionDecoder.newInstance(filePath, false);
+            SamplingPlan plan = SamplingPlan.create(rect.width(), rect.height(), width, height, sMaxDecodeBytes, Bitmap.Config.ARGB_8888);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = plan.getInSampleSize();
+            return decoder.decodeRegion(rect, options);
+        }catch(IOException e){
+            LogUtils.e(filePath, e);
+            return null;
+        }finally{
+            if(decoder != null){
+                decoder.recycle();
+            }
+        }
+    }
+
+    /**
+     * 巨大な画像を表示範囲のタイルごとにデコードするデコーダを生成する
+     * 
+     * @param filePath
+     * @param tileSize デコード後のタイルの一辺のピクセル数
+     * @param cacheBytes タイルのキャッシュのバイト数の上限
+     * @return 失敗した場合は null
+     */
+    public static TiledBitmapDecoder createTiledDecoder(String filePath, int tileSize, long cacheBytes){
+        try{
+            return new TiledBitmapDecoder(filePath, tileSize, cacheBytes);
+        }catch(IOException e){
+            LogUtils.e(filePath, e);
+            return null;
+        }
     }
 
     /**
-     * InputStream to Bitmap
+     * InputStream to Bitmap<br>
+     * inBitmap は {@link InputStream#markSupported()} なストリームの場合だけ使う。
      * 
      * @param is
      * @param width
@@ -296,9 +690,28 @@ public class BitmapUtils {
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeStream(is, null, options);
-        options.inSampleSize = BitmapUtils.calculateInSampleSize(options, width, height);
-        options.inJustDecodeBounds = false;
-        return BitmapFactory.decodeStream(is, null, options);
+        SamplingPlan plan = BitmapUtils.createSamplingPlan(options, width, height);
+        plan.apply(options);
+        // inBitmap でデコードできなかったときに読み直せないストリームでは inBitmap を使わない
+        boolean reuse = is.markSupported() && BitmapUtils.applyInBitmap(options);
+        if(reuse){
+            is.mark(Integer.MAX_VALUE);
+        }
+        try{
+            return plan.restoreDensity(BitmapFactory.decodeStream(is, null, options));
+        }catch(IllegalArgumentException e){
+            if(!reuse){
+                throw e;
+            }
+            BitmapUtils.clearInBitmap(options);
+            try{
+                is.reset();
+            }catch(IOException ioe){
+                LogUtils.e(ioe);
+                return null;
+            }
+            return plan.restoreDensity(BitmapFactory.decodeStream(is, null, options));
+        }
     }
 
     /**
@@ -311,6 +724,11 @@ public class BitmapUtils {
      * @return
      */
     public static Bitmap loadBitmap(Context context, Uri uri, int width, int height){
+        BitmapCache.Key key = BitmapUtils.createCacheKey(uri, width, height);
+        Bitmap cached = BitmapUtils.getCachedBitmap(key);
+        if(cached != null){
+            return cached;
+        }
         // 分割させる値の計算
         int orientation = BitmapUtils.getImageOrientation(uri, context);
         // 横になっている画像は90度回転させる
@@ -337,14 +755,14 @@ public class BitmapUtils {
                 }
             }
         }
-        if(orientation != 0){
+        if(orientation != 0 && bitmap != null){
             // 画像を回転させて取ってくる。
-            Bitmap rotateBitmap = BitmapUtils.rotate(bitmap, orientation);
-            bitmap.recycle();
+            Bitmap rotateBitmap = BitmapUtils.transform(bitmap, BitmapUtils.createTransform(bitmap).rotate(orientation));
+            BitmapUtils.recycle(bitmap);
             bitmap = null;
             bitmap = rotateBitmap;
         }
-        return bitmap;
+        return BitmapUtils.putCachedBitmap(key, bitmap);
     }
 
     /**
@@ -371,6 +789,33 @@ public class BitmapUtils {
         return orientaion;
     }
 
+    /**
+     * 画像ファイルの Exif から画像の向きを取得する
+     * 
+     * @param filePath
+     * @return 時計回りの回転角 (0, 90, 180, 270)
+     */
+    public static int getImageOrientation(String filePath){
+        int orientation;
+        try{
+            ExifInterface exif = new ExifInterface(filePath);
+            orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        }catch(IOException e){
+            e.printStackTrace();
+            return 0;
+        }
+        switch(orientation){
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+
     /**
      * 新規Bitmapを生成する
      */
@@ -471,6 +916,38 @@ public class BitmapUtils {
         return Bitmap.createBitmap(bitmap, x, y, w, h);
     }
 
+    /**
+     * 回転、リサイズ、切り抜き、反転をまとめて1回で行う変換を生成する
+     * 
+     * @param bitmap
+     * @return transform
+     * @see #transform(Bitmap, BitmapTransform)
+     */
+    public static BitmapTransform createTransform(Bitmap bitmap){
+        return new BitmapTransform(bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    /**
+     * 画像を変換する(元の画像は破棄しない)<br>
+     * 途中の画像を生成せずに1回の描画で変換する。<br>
+     * {@link #setBitmapPool(BitmapPool)} でプールを設定している場合は出力先をプールから取得する。
+     * 
+     * <pre>
+     * Bitmap bitmap = BitmapUtils.transform(src, BitmapUtils.createTransform(src).rotate(90).resize(w, h).crop(x, y, cw, ch));
+     * </pre>
+     * 
+     * @param bitmap
+     * @param transform
+     * @return 変換後の画像
+     */
+    public static Bitmap transform(Bitmap bitmap, BitmapTransform transform){
+        BitmapPool pool = sBitmapPool;
+        if(pool != null){
+            return transform.apply(bitmap, pool);
+        }
+        return transform.apply(bitmap);
+    }
+
     /**
      * 画像を合成する
      * 
@@ -513,7 +990,49 @@ public class BitmapUtils {
      * @return
      */
     public static String toBase64(Bitmap bitmap){
-        return Base64.encodeToString(BitmapUtils.toByteArray(bitmap), Base64.DEFAULT);
+        StringWriter writer = new StringWriter();
+        BitmapUtils.toBase64(bitmap, writer);
+        return writer.toString();
+    }
+
+    /**
+     * 画像を BASE64 エンコードしながら Writer に書き込む<br>
+     * 圧縮後のバイト列全体をメモリに展開しない。Writer は閉じない。
+     * 
+     * @param bitmap
+     * @param writer
+     * @return 成功した場合は true
+     */
+    public static boolean toBase64(Bitmap bitmap, Writer writer){
+        boolean result = BitmapUtils.toBase64(bitmap, new WriterOutputStream(writer));
+        try{
+            writer.flush();
+        }catch(IOException e){
+            e.printStackTrace();
+            return false;
+        }
+        return result;
+    }
+
+    /**
+     * 画像を BASE64 エンコードしながら OutputStream に書き込む<br>
+     * 圧縮後のバイト列全体をメモリに展開しない。OutputStream は閉じない。
+     * 
+     * @param bitmap
+     * @param os
+     * @return 成功した場合は true
+     */
+    public static boolean toBase64(Bitmap bitmap, OutputStream os){
+        Base64OutputStream base64 = new Base64OutputStream(new BufferedOutputStream(os, BASE64_BUFFER_SIZE), Base64.DEFAULT | Base64.NO_CLOSE);
+        boolean result = bitmap.compress(CompressFormat.PNG, MediaUtils.DEFAULT_COMPRESS_QUALITY, base64);
+        try{
+            // 末尾のパディングを書き込む
+            base64.close();
+        }catch(IOException e){
+            e.printStackTrace();
+            return false;
+        }
+        return result;
     }
 
     /**
@@ -26,6 +26,7 @@ import android.hardware.Camera.Size;
 import android.media.CamcorderProfile;
 import android.os.Build;
 import at.wada811.android.library.R;
+import at.wada811.graphics.FrameBufferPool;
 import org.json.JSONException;
 import org.json.JSONObject;
 import java.util.List;
@@ -316,6 +317,37 @@ public class CameraUtils {
         camera.setParameters(params);
     }
 
+    /**
+     * 現在のプレビューサイズとフォーマットから1フレームのバイト数を計算する
+     * 
+     * @param camera
+     * @return bufferSize
+     */
+    public static int getPreviewBufferSize(Camera camera){
+        Parameters params = camera.getParameters();
+        Size previewSize = params.getPreviewSize();
+        return FrameBufferPool.getYuvBufferSize(previewSize.width, previewSize.height, params.getPreviewFormat());
+    }
+
+    /**
+     * プールから取得したバッファをプレビューのコールバック用に追加する<br>
+     * {@link Camera#setPreviewCallbackWithBuffer(Camera.PreviewCallback)} と組み合わせて、
+     * onPreviewFrame で受け取った byte 配列を処理後に {@link Camera#addCallbackBuffer(byte[])} で戻すと
+     * プレビュー中のメモリ確保が発生しなくなる。
+     * 
+     * @param camera
+     * @param pool
+     * @param count
+     */
+    public static void addCallbackBuffers(Camera camera, FrameBufferPool pool, int count){
+        Parameters params = camera.getParameters();
+        Size previewSize = params.getPreviewSize();
+        int previewFormat = params.getPreviewFormat();
+        for(int i = 0; i < count; i++){
+            camera.addCallbackBuffer(pool.obtainYuvBuffer(previewSize.width, previewSize.height, previewFormat));
+        }
+    }
+
     /**
      * 画面サイズとプレビューサイズ、それらのアスペクト比を保存する
      * 
@@ -15,100 +15,301 @@
  */
 package at.wada811.utils;
 
-import java.io.BufferedReader;
+import at.wada811.io.FileContentReader;
+import at.wada811.io.FileTreeCopier;
+import at.wada811.io.RecordReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 
 public class FileUtils {
 
+    /** 1回の transferTo で転送する最大バイト数 */
+    private static final long TRANSFER_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    /** move でコピーする場合の一時ファイルの拡張子 */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * ファイルをコピーする<br>
+     * ディレクトリの場合は中のファイルも再帰的にコピーする。
+     * 
+     * @param srcFile
+     * @param distFile srcFile 自身や srcFile の中は指定できない
+     * @return 全てコピーできた場合は true
+     * @see FileTreeCopier
+     */
     public static boolean copy(File srcFile, File distFile){
-        if(!srcFile.exists()){
+        if(!srcFile.exists() || FileUtils.contains(srcFile, distFile)){
             return false;
         }
-        if(srcFile.isFile()){
-            distFile.getParentFile().mkdirs();
-            if(!distFile.getParentFile().exists()){
-                return false;
-            }
-        }else{
+        return FileUtils.copyRecursively(srcFile, distFile);
+    }
+
+    private static boolean copyRecursively(File srcFile, File distFile){
+        if(srcFile.isDirectory()){
             distFile.mkdirs();
             if(!distFile.exists()){
                 return false;
             }
+            File[] children = srcFile.listFiles();
+            if(children == null){
+                return false;
+            }
+            for(File child : children){
+                if(!FileUtils.copyRecursively(child, new File(distFile, child.getName()))){
+                    return false;
+                }
+            }
+            return true;
+        }
+        distFile.getParentFile().mkdirs();
+        if(!distFile.getParentFile().exists()){
+            return false;
         }
-        FileChannel srcChannel = null;
-        FileChannel distChannel = null;
         try{
-            srcChannel = new FileInputStream(srcFile).getChannel();
-            distChannel = new FileOutputStream(distFile).getChannel();
-            srcChannel.transferTo(0, srcChannel.size(), distChannel);
-        }catch(FileNotFoundException e){
+            FileUtils.copyFile(srcFile, distFile, false);
+        }catch(IOException e){
             e.printStackTrace();
             return false;
+        }
+        return true;
+    }
+
+    /**
+     * file が dir 自身か dir の中にあるか調べる<br>
+     * シンボリックリンクや ".." をたどった実際のパスで比べる。
+     * 
+     * @param dir
+     * @param file
+     * @return パスを解決できない場合も true
+     */
+    public static boolean contains(File dir, File file){
+        try{
+            String dirPath = dir.getCanonicalPath();
+            String filePath = file.getCanonicalPath();
+            return filePath.equals(dirPath) || filePath.startsWith(dirPath.endsWith(File.separator) ? dirPath : dirPath + File.separator);
         }catch(IOException e){
             e.printStackTrace();
-            return false;
-        }finally{
-            if(srcChannel != null){
-                try{
-                    srcChannel.close();
-                }catch(IOException e){
-                    e.printStackTrace();
+            return true;
+        }
+    }
+
+    /**
+     * ファイルを1つコピーする
+     * 
+     * @param srcFile
+     * @param distFile
+     * @param sync 書き込んだ内容をディスクに同期してから閉じる場合は true
+     * @throws IOException
+     */
+    public static void copyFile(File srcFile, File distFile, boolean sync) throws IOException{
+        FileInputStream fis = new FileInputStream(srcFile);
+        try{
+            FileOutputStream fos = new FileOutputStream(distFile);
+            try{
+                FileUtils.transferFully(fis.getChannel(), fos.getChannel());
+                if(sync){
+                    fos.getFD().sync();
                 }
+            }finally{
+                fos.close();
             }
-            if(distChannel != null){
-                try{
-                    distChannel.close();
-                }catch(IOException e){
-                    e.printStackTrace();
-                }
+        }finally{
+            fis.close();
+        }
+    }
+
+    /**
+     * src の全体を dist に転送する<br>
+     * transferTo は要求より少ないバイト数しか転送しないことがあるので、全て転送するまで繰り返す。
+     * 
+     * @param srcChannel
+     * @param distChannel
+     * @return 転送したバイト数
+     * @throws IOException
+     */
+    public static long transferFully(FileChannel srcChannel, FileChannel distChannel) throws IOException{
+        long size = srcChannel.size();
+        long position = 0;
+        while(position < size){
+            long count = FileUtils.transfer(srcChannel, distChannel, position, Math.min(size - position, TRANSFER_CHUNK_SIZE));
+            if(count < 0){
+                // コピー中にファイルが小さくなった
+                break;
             }
+            position += count;
         }
-        return true;
+        return position;
     }
 
+    /**
+     * src の position から最大 count バイトを dist に転送する<br>
+     * transferTo が何も転送しなかった場合はバッファ経由でコピーする。
+     * 
+     * @param srcChannel
+     * @param distChannel
+     * @param position
+     * @param count
+     * @return 転送したバイト数、position がファイルの終わりの場合は -1
+     * @throws IOException
+     */
+    public static long transfer(FileChannel srcChannel, FileChannel distChannel, long position, long count) throws IOException{
+        long transferred = srcChannel.transferTo(position, count, distChannel);
+        if(transferred > 0){
+            return transferred;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(count, COPY_BUFFER_SIZE));
+        int read = srcChannel.read(buffer, position);
+        if(read < 0){
+            return -1;
+        }
+        buffer.flip();
+        while(buffer.hasRemaining()){
+            distChannel.write(buffer);
+        }
+        return read;
+    }
+
+    /**
+     * ファイルを移動する<br>
+     * まず名前の変更を試し、別のボリュームへの移動などで失敗した場合はコピーしてから元のファイルを削除する。<br>
+     * コピーは一時ファイルに書き込んでディスクに同期してから名前を変更するので、途中で中断しても移動先に壊れたファイルは残らない。<br>
+     * ディレクトリの場合は中のファイルも移動する。
+     * 
+     * @param srcFile
+     * @param distFile srcFile 自身や srcFile の中は指定できない
+     * @return 全て移動できた場合は true
+     */
     public static boolean move(File srcFile, File distFile){
-        boolean success = FileUtils.copy(srcFile, distFile);
-        if(success){
-            srcFile.delete();
+        if(!srcFile.exists() || FileUtils.contains(srcFile, distFile)){
+            return false;
+        }
+        return FileUtils.moveRecursively(srcFile, distFile);
+    }
+
+    private static boolean moveRecursively(File srcFile, File distFile){
+        File parent = distFile.getAbsoluteFile().getParentFile();
+        if(parent != null){
+            parent.mkdirs();
+        }
+        if(srcFile.renameTo(distFile)){
+            return true;
+        }
+        if(srcFile.isDirectory()){
+            // 別のボリュームか、移動先に空でないディレクトリがある
+            distFile.mkdirs();
+            if(!distFile.isDirectory()){
+                return false;
+            }
+            File[] children = srcFile.listFiles();
+            if(children == null){
+                return false;
+            }
+            boolean success = true;
+            for(File child : children){
+                success &= FileUtils.moveRecursively(child, new File(distFile, child.getName()));
+            }
+            return success && srcFile.delete();
         }
-        return success;
+        // 既存のファイルを上書きしないように重複しない名前の一時ファイルを作る (prefix は3文字以上必要)
+        File tempFile = null;
+        try{
+            tempFile = File.createTempFile("." + distFile.getName() + ".", TEMP_SUFFIX, distFile.getAbsoluteFile().getParentFile());
+            FileUtils.copyFile(srcFile, tempFile, true);
+        }catch(IOException e){
+            e.printStackTrace();
+            if(tempFile != null){
+                tempFile.delete();
+            }
+            return false;
+        }
+        tempFile.setLastModified(srcFile.lastModified());
+        if(!tempFile.renameTo(distFile)){
+            tempFile.delete();
+            return false;
+        }
+        return srcFile.delete();
     }
 
     public static String readFileString(String filePath){
         return FileUtils.readFileString(new File(filePath));
     }
 
+    /**
+     * ファイルの内容を文字列で読み込む (改行コードは変換しない)
+     * 
+     * @param file
+     * @return 読み込めなかった場合は null
+     * @see FileContentReader
+     */
     public static String readFileString(File file){
-        BufferedReader br = null;
-        StringBuilder builder = new StringBuilder();
         try{
-            br = new BufferedReader(new InputStreamReader(new FileInputStream(file)));
-            String line;
-            while((line = br.readLine()) != null){
-                builder.append(line);
-                builder.append("\n");
-            }
-        }catch(FileNotFoundException e){
+            return FileContentReader.getDefault().readString(file);
+        }catch(IOException e){
             e.printStackTrace();
             return null;
+        }
+    }
+
+    /**
+     * ファイルの内容を文字列にせずに読み込む (改行コードは変換しない)
+     * 
+     * @param file
+     * @return 読み込めなかった場合は null
+     */
+    public static CharBuffer readFileChars(File file){
+        try{
+            return FileContentReader.getDefault().readChars(file);
+        }catch(IOException e){
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * ファイルの内容を byte[] で読み込む
+     * 
+     * @param file
+     * @return 読み込めなかった場合は null
+     */
+    public static byte[] readFileBytes(File file){
+        try{
+            return FileContentReader.getDefault().readBytes(file);
         }catch(IOException e){
             e.printStackTrace();
             return null;
-        }finally{
-            if(br != null){
-                try{
-                    br.close();
-                }catch(IOException e){
-                    e.printStackTrace();
-                }
-            }
         }
-        return builder.toString();
+    }
+
+    /**
+     * ファイルを1行ずつ読み込むリーダーを開く<br>
+     * 使い終わったら close すること。
+     * 
+     * @param file
+     * @return reader
+     * @throws FileNotFoundException
+     */
+    public static RecordReader openLineReader(File file) throws FileNotFoundException{
+        return FileUtils.openRecordReader(file, RecordReader.LINE_DELIMITER);
+    }
+
+    /**
+     * ファイルを区切り文字ごとに読み込むリーダーを開く<br>
+     * 使い終わったら close すること。
+     * 
+     * @param file
+     * @param delimiter
+     * @return reader
+     * @throws FileNotFoundException
+     */
+    public static RecordReader openRecordReader(File file, char delimiter) throws FileNotFoundException{
+        return new RecordReader(new FileInputStream(file), Charset.defaultCharset(), delimiter);
     }
 }
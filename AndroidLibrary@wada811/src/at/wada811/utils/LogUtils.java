@@ -17,6 +17,14 @@ package at.wada811.utils;
 
 import android.util.Log;
 import at.wada811.android.library.BuildConfig;
+import at.wada811.log.AsyncLogger;
+import at.wada811.log.BinaryLogSink;
+import at.wada811.log.LogRecord;
+import at.wada811.log.MessageFormatter;
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 public class LogUtils {
 
@@ -26,119 +34,530 @@ public class LogUtils {
     public static String TAG = LogUtils.class.getSimpleName();
 
     /**
-     * ラッパーメソッドはここを書き換える
+     * 出力しないレベル
      */
+    public static final int SUPPRESS = Integer.MAX_VALUE;
+
+    /**
+     * 呼び出し元の取得方法
+     */
+    public static enum CallerMode {
+        /** 取得しない */
+        NONE,
+        /** Throwable のスタックトレースから LogUtils とラッパークラス以外の最初のフレームを探す */
+        THROWABLE,
+    }
+
+    /**
+     * ログのメッセージを出力する場合だけ生成する
+     */
+    public interface MessageSupplier {
+
+        /**
+         * 出力するレベルの場合だけ呼ばれる
+         * 
+         * @return message
+         */
+        public String get();
+    }
+
+    /**
+     * @deprecated 呼び出し元はクラス名で探すので使われない。ラッパークラスは {@link #addWrapperClass(Class)} で登録する。
+     */
+    @Deprecated
     public static int STACK_INDEX = 4;
     public static boolean isDebug = true;
+    private static volatile AsyncLogger sAsyncLogger;
+    private static volatile CallerMode sCallerMode = BuildConfig.DEBUG ? CallerMode.THROWABLE : CallerMode.NONE;
+    private static volatile String[] sWrapperClassNames = {
+        LogUtils.class.getName()
+    };
+    /** タグ別のレベルが無い場合のレベル (リリースビルドではデフォルトで出力しない) */
+    private static volatile int sLevel = BuildConfig.DEBUG ? Log.VERBOSE : SUPPRESS;
+    /** sLevel とタグ別のレベルの最小値 */
+    private static volatile int sMinLevel = sLevel;
+    /** タグ別のレベル (書き換えるときはコピーする) */
+    private static volatile Map<String, Integer> sTagLevels = Collections.emptyMap();
+
+    /**
+     * 出力するかどうか<br>
+     * レベルが全てのタグのレベルより低い場合は比較だけで false を返す。
+     * 
+     * @param priority {@link Log#VERBOSE} など
+     * @param tag
+     * @return loggable
+     */
+    public static boolean isLoggable(int priority, String tag){
+        if(!isDebug || priority < sMinLevel){
+            return false;
+        }
+        Map<String, Integer> tagLevels = sTagLevels;
+        if(tagLevels.isEmpty()){
+            return priority >= sLevel;
+        }
+        Integer level = tagLevels.get(tag);
+        return priority >= (level == null ? sLevel : level);
+    }
+
+    /**
+     * 出力するレベルを設定する
+     * 
+     * @param priority これ以上のレベルを出力する、{@link #SUPPRESS} の場合は出力しない
+     */
+    public static synchronized void setLevel(int priority){
+        sLevel = priority;
+        LogUtils.updateMinLevel();
+    }
+
+    /**
+     * タグ別に出力するレベルを設定する
+     * 
+     * @param tag
+     * @param priority これ以上のレベルを出力する、{@link #SUPPRESS} の場合は出力しない
+     */
+    public static synchronized void setLevel(String tag, int priority){
+        Map<String, Integer> tagLevels = new HashMap<String, Integer>(sTagLevels);
+        tagLevels.put(tag, priority);
+        sTagLevels = tagLevels;
+        LogUtils.updateMinLevel();
+    }
+
+    /**
+     * タグ別のレベルを全て削除する
+     */
+    public static synchronized void clearTagLevels(){
+        sTagLevels = Collections.emptyMap();
+        LogUtils.updateMinLevel();
+    }
+
+    public static int getLevel(){
+        return sLevel;
+    }
+
+    private static void updateMinLevel(){
+        int minLevel = sLevel;
+        for(int level : sTagLevels.values()){
+            minLevel = Math.min(minLevel, level);
+        }
+        sMinLevel = minLevel;
+    }
+
+    /**
+     * 呼び出し元の取得方法を設定する<br>
+     * デフォルトはデバッグビルドでは {@link CallerMode#THROWABLE}、リリースビルドでは {@link CallerMode#NONE}
+     * 
+     * @param mode
+     */
+    public static void setCallerMode(CallerMode mode){
+        sCallerMode = mode;
+    }
+
+    /**
+     * LogUtils をラップするクラスを登録する<br>
+     * 呼び出し元を探すときにこのクラスのフレームを飛ばす。
+     * 
+     * @param wrapperClass
+     */
+    public static synchronized void addWrapperClass(Class<?> wrapperClass){
+        String[] names = sWrapperClassNames;
+        String[] added = new String[names.length + 1];
+        System.arraycopy(names, 0, added, 0, names.length);
+        added[names.length] = wrapperClass.getName();
+        sWrapperClassNames = added;
+    }
+
+    /**
+     * ログを別スレッドで書き出すロガーを設定する<br>
+     * 前に設定したロガーはバッファに残っているログを書き出してから終了する。
+     * 
+     * @param logger null の場合は呼び出し元のスレッドで logcat に出力する
+     */
+    public static void setAsyncLogger(AsyncLogger logger){
+        AsyncLogger previous = sAsyncLogger;
+        sAsyncLogger = logger;
+        if(previous != null && previous != logger){
+            previous.shutdown();
+        }
+    }
+
+    public static AsyncLogger getAsyncLogger(){
+        return sAsyncLogger;
+    }
+
+    /**
+     * 非同期のロガーのバッファに溜まっているログを書き出す
+     * 
+     * @param timeoutMillis
+     * @return 書き出した場合と非同期のロガーが無い場合は true
+     */
+    public static boolean flush(long timeoutMillis){
+        AsyncLogger logger = sAsyncLogger;
+        return logger == null || logger.flush(timeoutMillis);
+    }
 
-    private static boolean isLoggable(){
-        return BuildConfig.DEBUG && isDebug;
+    /**
+     * キャッチされなかった例外で終了する前に例外をログに出力し、非同期のロガーを flush する<br>
+     * 設定済みの UncaughtExceptionHandler はその後に呼ぶ。
+     * 
+     * @param timeoutMillis flush を待つ最大時間
+     */
+    public static void flushOnUncaughtException(final long timeoutMillis){
+        final UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler(new UncaughtExceptionHandler(){
+            @Override
+            public void uncaughtException(Thread thread, Throwable ex){
+                try{
+                    if(LogUtils.isLoggable(Log.ERROR, TAG)){
+                        LogUtils.println(Log.ERROR, TAG, null, "Uncaught exception in " + thread.getName(), ex);
+                    }
+                    LogUtils.flush(timeoutMillis);
+                }finally{
+                    if(handler != null){
+                        handler.uncaughtException(thread, ex);
+                    }
+                }
+            }
+        });
     }
 
     public static void v(){
-        if(LogUtils.isLoggable()){
-            Log.v(TAG, getMetaInfo());
+        if(LogUtils.isLoggable(Log.VERBOSE, TAG)){
+            LogUtils.println(Log.VERBOSE, TAG, LogUtils.getCaller(), "", null);
         }
     }
 
     public static void v(String message){
-        if(LogUtils.isLoggable()){
-            Log.v(TAG, getMetaInfo() + null2str(message));
+        if(LogUtils.isLoggable(Log.VERBOSE, TAG)){
+            LogUtils.println(Log.VERBOSE, TAG, LogUtils.getCaller(), LogUtils.null2str(message), null);
         }
     }
 
     public static void v(String tag, String message){
-        if(LogUtils.isLoggable()){
-            Log.v(tag, getMetaInfo() + null2str(message));
+        if(LogUtils.isLoggable(Log.VERBOSE, tag)){
+            LogUtils.println(Log.VERBOSE, tag, LogUtils.getCaller(), LogUtils.null2str(message), null);
         }
     }
 
     public static void d(){
-        if(LogUtils.isLoggable()){
-            Log.d(TAG, getMetaInfo());
+        if(LogUtils.isLoggable(Log.DEBUG, TAG)){
+            LogUtils.println(Log.DEBUG, TAG, LogUtils.getCaller(), "", null);
         }
     }
 
     public static void d(String message){
-        if(LogUtils.isLoggable()){
-            Log.d(TAG, getMetaInfo() + null2str(message));
+        if(LogUtils.isLoggable(Log.DEBUG, TAG)){
+            LogUtils.println(Log.DEBUG, TAG, LogUtils.getCaller(), LogUtils.null2str(message), null);
         }
     }
 
     public static void d(String tag, String message){
-        if(LogUtils.isLoggable()){
-            Log.d(tag, getMetaInfo() + null2str(message));
+        if(LogUtils.isLoggable(Log.DEBUG, tag)){
+            LogUtils.println(Log.DEBUG, tag, LogUtils.getCaller(), LogUtils.null2str(message), null);
         }
     }
 
     public static void i(){
-        if(LogUtils.isLoggable()){
-            Log.i(TAG, getMetaInfo());
+        if(LogUtils.isLoggable(Log.INFO, TAG)){
+            LogUtils.println(Log.INFO, TAG, LogUtils.getCaller(), "", null);
         }
     }
 
     public static void i(String message){
-        if(LogUtils.isLoggable()){
-            Log.i(TAG, getMetaInfo() + null2str(message));
+        if(LogUtils.isLoggable(Log.INFO, TAG)){
+            LogUtils.println(Log.INFO, TAG, LogUtils.getCaller(), LogUtils.null2str(message), null);
         }
     }
 
     public static void i(String tag, String message){
-        if(LogUtils.isLoggable()){
-            Log.i(tag, getMetaInfo() + null2str(message));
+        if(LogUtils.isLoggable(Log.INFO, tag)){
+            LogUtils.println(Log.INFO, tag, LogUtils.getCaller(), LogUtils.null2str(message), null);
         }
     }
 
     public static void w(String message){
-        if(LogUtils.isLoggable()){
-            Log.w(TAG, getMetaInfo() + null2str(message));
+        if(LogUtils.isLoggable(Log.WARN, TAG)){
+            LogUtils.println(Log.WARN, TAG, LogUtils.getCaller(), LogUtils.null2str(message), null);
         }
     }
 
     public static void w(String tag, String message){
-        if(LogUtils.isLoggable()){
-            Log.w(tag, getMetaInfo() + null2str(message));
+        if(LogUtils.isLoggable(Log.WARN, tag)){
+            LogUtils.println(Log.WARN, tag, LogUtils.getCaller(), LogUtils.null2str(message), null);
         }
     }
 
     public static void w(String message, Throwable e){
-        if(LogUtils.isLoggable()){
-            Log.w(TAG, getMetaInfo() + null2str(message), e);
-            logThrowable(e);
-            if(e.getCause() != null){
-                logThrowable(e.getCause());
-            }
+        if(LogUtils.isLoggable(Log.WARN, TAG)){
+            LogUtils.println(Log.WARN, TAG, LogUtils.getCaller(), LogUtils.null2str(message), e);
         }
     }
 
     public static void e(String message){
-        if(LogUtils.isLoggable()){
-            Log.e(TAG, getMetaInfo() + null2str(message));
+        if(LogUtils.isLoggable(Log.ERROR, TAG)){
+            LogUtils.println(Log.ERROR, TAG, LogUtils.getCaller(), LogUtils.null2str(message), null);
         }
     }
 
     public static void e(String tag, String message){
-        if(LogUtils.isLoggable()){
-            Log.e(tag, getMetaInfo() + null2str(message));
+        if(LogUtils.isLoggable(Log.ERROR, tag)){
+            LogUtils.println(Log.ERROR, tag, LogUtils.getCaller(), LogUtils.null2str(message), null);
         }
     }
 
     public static void e(String message, Throwable e){
-        if(LogUtils.isLoggable()){
-            Log.e(TAG, getMetaInfo() + null2str(message), e);
-            logThrowable(e);
-            if(e.getCause() != null){
-                logThrowable(e.getCause());
-            }
+        if(LogUtils.isLoggable(Log.ERROR, TAG)){
+            LogUtils.println(Log.ERROR, TAG, LogUtils.getCaller(), LogUtils.null2str(message), e);
         }
     }
 
     public static void e(Throwable e){
-        if(LogUtils.isLoggable()){
-            logThrowable(e);
-            if(e.getCause() != null){
-                logThrowable(e.getCause());
+        if(LogUtils.isLoggable(Log.ERROR, TAG)){
+            LogUtils.println(Log.ERROR, TAG, LogUtils.getCaller(), null, e);
+        }
+    }
+
+    /**
+     * "{}" を引数で置き換えたメッセージを出力する<br>
+     * 出力しないレベルの場合は文字列を組み立てない。引数がプリミティブ1つの場合はボクシングしない。<br>
+     * 非同期のロガーが設定されていれば整形前のメッセージと引数のまま渡し、整形は書き出しスレッドか {@link BinaryLogSink} のデコーダで行う。<br>
+     * 引数が2つ以上の場合は型が混ざっても変換されないように Object で受け取る。
+     * 
+     * <pre>
+     * LogUtils.log(Log.DEBUG, "moveX: {}", moveX);
+     * LogUtils.log(TAG, Log.DEBUG, "moveX: {}, moveY: {}", moveX, moveY);
+     * </pre>
+     * 
+     * @param priority {@link Log#VERBOSE} など
+     * @param format
+     * @param arg
+     * @see MessageFormatter
+     */
+    public static void log(int priority, String format, long arg){
+        LogUtils.log(TAG, priority, format, arg);
+    }
+
+    public static void log(int priority, String format, float arg){
+        LogUtils.log(TAG, priority, format, arg);
+    }
+
+    public static void log(int priority, String format, double arg){
+        LogUtils.log(TAG, priority, format, arg);
+    }
+
+    public static void log(int priority, String format, boolean arg){
+        LogUtils.log(TAG, priority, format, arg);
+    }
+
+    public static void log(int priority, String format, char arg){
+        LogUtils.log(TAG, priority, format, arg);
+    }
+
+    public static void log(int priority, String format, Object arg){
+        LogUtils.log(TAG, priority, format, arg);
+    }
+
+    public static void log(int priority, String format, Object arg1, Object arg2){
+        LogUtils.log(TAG, priority, format, arg1, arg2);
+    }
+
+    public static void log(int priority, String format, Object arg1, Object arg2, Object arg3){
+        LogUtils.log(TAG, priority, format, arg1, arg2, arg3);
+    }
+
+    /**
+     * "{}" を引数で置き換えたメッセージを出力する<br>
+     * 引数が4つ以上の場合に使う。出力しない場合も配列は生成される。
+     * 
+     * @param priority
+     * @param format
+     * @param args
+     */
+    public static void log(int priority, String format, Object... args){
+        LogUtils.log(TAG, priority, format, args);
+    }
+
+    /**
+     * 出力する場合だけメッセージを生成して出力する
+     * 
+     * @param priority
+     * @param supplier
+     */
+    public static void log(int priority, MessageSupplier supplier){
+        LogUtils.log(TAG, priority, supplier);
+    }
+
+    /**
+     * タグを指定して "{}" を引数で置き換えたメッセージを出力する
+     * 
+     * @param tag
+     * @param priority {@link Log#VERBOSE} など
+     * @param format
+     * @param arg
+     * @see #log(int, String, long)
+     */
+    public static void log(String tag, int priority, String format, long arg){
+        if(LogUtils.isLoggable(priority, tag)){
+            LogUtils.printFormat(priority, tag, format, LogRecord.TYPE_LONG, arg, null);
+        }
+    }
+
+    public static void log(String tag, int priority, String format, float arg){
+        if(LogUtils.isLoggable(priority, tag)){
+            LogUtils.printFormat(priority, tag, format, LogRecord.TYPE_FLOAT, Float.floatToRawIntBits(arg), null);
+        }
+    }
+
+    public static void log(String tag, int priority, String format, double arg){
+        if(LogUtils.isLoggable(priority, tag)){
+            LogUtils.printFormat(priority, tag, format, LogRecord.TYPE_DOUBLE, Double.doubleToRawLongBits(arg), null);
+        }
+    }
+
+    public static void log(String tag, int priority, String format, boolean arg){
+        if(LogUtils.isLoggable(priority, tag)){
+            LogUtils.printFormat(priority, tag, format, LogRecord.TYPE_BOOLEAN, arg ? 1 : 0, null);
+        }
+    }
+
+    public static void log(String tag, int priority, String format, char arg){
+        if(LogUtils.isLoggable(priority, tag)){
+            LogUtils.printFormat(priority, tag, format, (byte)0, 0, new Object[]{ String.valueOf(arg) });
+        }
+    }
+
+    public static void log(String tag, int priority, String format, Object arg){
+        if(LogUtils.isLoggable(priority, tag)){
+            LogUtils.printFormat(priority, tag, format, (byte)0, 0, new Object[]{ arg });
+        }
+    }
+
+    public static void log(String tag, int priority, String format, Object arg1, Object arg2){
+        if(LogUtils.isLoggable(priority, tag)){
+            LogUtils.printFormat(priority, tag, format, (byte)0, 0, new Object[]{ arg1, arg2 });
+        }
+    }
+
+    public static void log(String tag, int priority, String format, Object arg1, Object arg2, Object arg3){
+        if(LogUtils.isLoggable(priority, tag)){
+            LogUtils.printFormat(priority, tag, format, (byte)0, 0, new Object[]{ arg1, arg2, arg3 });
+        }
+    }
+
+    public static void log(String tag, int priority, String format, Object... args){
+        if(LogUtils.isLoggable(priority, tag)){
+            LogUtils.printFormat(priority, tag, format, (byte)0, 0, args);
+        }
+    }
+
+    public static void log(String tag, int priority, MessageSupplier supplier){
+        if(LogUtils.isLoggable(priority, tag)){
+            LogUtils.println(priority, tag, LogUtils.getCaller(), LogUtils.null2str(supplier.get()), null);
+        }
+    }
+
+    /**
+     * "{}" を引数で置き換えたメッセージを出力する<br>
+     * 非同期のロガーが設定されていれば整形前のメッセージと引数のまま渡し、それ以外はここで整形する。
+     * 
+     * @param priority
+     * @param tag
+     * @param format
+     * @param type args が null の場合の引数の型 ({@link LogRecord#TYPE_LONG} など)
+     * @param bits args が null の場合の引数 (float と double はビット列)
+     * @param args Object の引数
+     */
+    private static void printFormat(int priority, String tag, String format, byte type, long bits, Object[] args){
+        AsyncLogger logger = sAsyncLogger;
+        if(logger != null && !logger.isShutdown() && (args == null || args.length <= LogRecord.MAX_ARGS)){
+            // toString() が例外を投げてもスロットを確保したままにならないように先に文字列にする
+            String[] strings = null;
+            if(args != null){
+                strings = new String[args.length];
+                for(int i = 0; i < args.length; i++){
+                    strings[i] = String.valueOf(args[i]);
+                }
+            }
+            LogRecord record = logger.claim(priority, tag, LogUtils.getCaller(), format);
+            if(record != null){
+                if(strings == null){
+                    switch(type){
+                        case LogRecord.TYPE_LONG:
+                            record.arg(bits);
+                            break;
+                        case LogRecord.TYPE_FLOAT:
+                            record.arg(Float.intBitsToFloat((int)bits));
+                            break;
+                        case LogRecord.TYPE_DOUBLE:
+                            record.arg(Double.longBitsToDouble(bits));
+                            break;
+                        default:
+                            record.arg(bits != 0);
+                            break;
+                    }
+                }else{
+                    for(String string : strings){
+                        record.arg(string);
+                    }
+                }
+                logger.publish(record);
+                return;
+            }
+            if(!logger.isShutdown()){
+                // バッファが一杯で捨てた
+                return;
             }
+            // shutdown と競合した場合は logcat に出力する
+        }
+        MessageFormatter formatter = MessageFormatter.start(format);
+        if(args == null){
+            switch(type){
+                case LogRecord.TYPE_LONG:
+                    formatter.arg(bits);
+                    break;
+                case LogRecord.TYPE_FLOAT:
+                    formatter.arg(Float.intBitsToFloat((int)bits));
+                    break;
+                case LogRecord.TYPE_DOUBLE:
+                    formatter.arg(Double.longBitsToDouble(bits));
+                    break;
+                default:
+                    formatter.arg(bits != 0);
+                    break;
+            }
+        }else{
+            for(Object arg : args){
+                formatter.arg(arg);
+            }
+        }
+        LogUtils.println(priority, tag, LogUtils.getCaller(), formatter.build(), null);
+    }
+
+    /**
+     * ログを出力する<br>
+     * 非同期のロガーが設定されていればそちらに渡し、呼び出し元のスレッドでは整形しない。
+     * 
+     * @param priority
+     * @param tag
+     * @param caller
+     * @param message null の場合は例外だけを出力する
+     * @param e
+     */
+    private static void println(int priority, String tag, StackTraceElement caller, String message, Throwable e){
+        AsyncLogger logger = sAsyncLogger;
+        if(logger != null && logger.log(priority, tag, caller, message, e)){
+            return;
+        }
+        if(message != null){
+            String text = caller == null ? message : LogUtils.getMetaInfo(caller) + message;
+            if(e == null){
+                Log.println(priority, tag, text);
+                return;
+            }
+            Log.println(priority, tag, text + '\n' + Log.getStackTraceString(e));
+        }
+        logThrowable(e);
+        if(e.getCause() != null){
+            logThrowable(e.getCause());
         }
     }
 
@@ -162,14 +581,31 @@ public class LogUtils {
     }
 
     /**
-     * ログ呼び出し元のメタ情報を取得する
+     * ログ呼び出し元を取得する<br>
+     * Thread#getStackTrace と違い VM とスレッドのフレームが無く、深さに依存しないようにクラス名で探す。
      * 
-     * @return [className#methodName:line]
+     * @return caller、取得しない場合は null
      */
-    private static String getMetaInfo(){
-        // スタックトレースから情報を取得 // 0: VM, 1: Thread, 2: LogUtil#getMetaInfo, 3: LogUtil#d など, 4: 呼び出し元
-        final StackTraceElement element = Thread.currentThread().getStackTrace()[STACK_INDEX];
-        return LogUtils.getMetaInfo(element);
+    private static StackTraceElement getCaller(){
+        if(sCallerMode == CallerMode.NONE){
+            return null;
+        }
+        String[] wrapperClassNames = sWrapperClassNames;
+        for(StackTraceElement element : new Throwable().getStackTrace()){
+            if(!LogUtils.contains(wrapperClassNames, element.getClassName())){
+                return element;
+            }
+        }
+        return null;
+    }
+
+    private static boolean contains(String[] names, String name){
+        for(String element : names){
+            if(element.equals(name)){
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
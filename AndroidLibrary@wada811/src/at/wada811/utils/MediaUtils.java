@@ -21,6 +21,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
+import android.hardware.Camera.CameraInfo;
 import android.media.MediaRecorder.OutputFormat;
 import android.net.Uri;
 import android.os.Environment;
@@ -28,16 +29,26 @@ import android.provider.MediaStore;
 import android.provider.MediaStore.Images.ImageColumns;
 import android.provider.MediaStore.MediaColumns;
 import android.webkit.MimeTypeMap;
+import at.wada811.media.ImageWriter;
+import at.wada811.media.ImageWriter.OnImageWrittenListener;
+import at.wada811.media.JpegExif;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class MediaUtils {
 
     /** デフォルトの保存品質 */
     public static int DEFAULT_COMPRESS_QUALITY = 100;
 
+    /** {@link #saveBitmapAsync(Context, Bitmap, String, OnImageWrittenListener)} で使う保存キュー */
+    private static ImageWriter sImageWriter;
+    /** 1回の bulkInsert で登録する最大数 (Binder のトランザクションの上限を超えないように分割する) */
+    private static final int BULK_INSERT_SIZE = 500;
+
     /**
      * Specifies the known formats and those's extensions that a bitmap can be compressed into
      */
@@ -171,7 +182,10 @@ public class MediaUtils {
 
     public static boolean saveBitmap(Context context, Bitmap bitmap, String filePath, int orientation){
         LogUtils.d(filePath + ", orientaion: " + orientation);
-        return MediaUtils.saveBitmap(context, BitmapUtils.rotate(bitmap, orientation), filePath);
+        if(orientation % 360 == 0){
+            return MediaUtils.saveBitmap(context, bitmap, filePath);
+        }
+        return MediaUtils.saveBitmap(context, BitmapUtils.transform(bitmap, BitmapUtils.createTransform(bitmap).rotate(orientation)), filePath);
     }
 
     /**
@@ -205,13 +219,80 @@ public class MediaUtils {
                     e.printStackTrace();
                 }
             }
-            bitmap.recycle();
+            BitmapUtils.recycle(bitmap);
             bitmap = null;
         }
         context.sendBroadcast(new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE, Uri.fromFile(file)));
         return true;
     }
 
+    /**
+     * カメラで撮影した JPEG をデコードせずに保存する<br>
+     * 画像データはそのままで、Exif の Orientation だけを設定する。
+     * 
+     * @param context
+     * @param data PictureCallback で受け取った JPEG (書き換える場合がある)
+     * @param filePath
+     * @param info
+     * @param displayOrientation
+     * @return 成功した場合は true
+     * @see CameraUtils#getPictureOrientaion(CameraInfo, int)
+     */
+    public static boolean saveJpeg(Context context, byte[] data, String filePath, CameraInfo info, int displayOrientation){
+        return MediaUtils.saveJpeg(context, data, filePath, CameraUtils.getPictureOrientaion(info, displayOrientation));
+    }
+
+    /**
+     * JPEG をデコードせずに保存する<br>
+     * 画像データはそのままで、Exif の Orientation だけを設定する。
+     * 
+     * @param context
+     * @param data JPEG (書き換える場合がある)
+     * @param filePath
+     * @param orientation 時計回りの回転角
+     * @return 成功した場合は true
+     */
+    public static boolean saveJpeg(Context context, byte[] data, String filePath, int orientation){
+        LogUtils.d(filePath + ", orientaion: " + orientation);
+        File file = new File(filePath);
+        try{
+            JpegExif.write(data, orientation, file);
+        }catch(IOException e){
+            LogUtils.e(filePath, e);
+            return false;
+        }
+        context.sendBroadcast(new Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE, Uri.fromFile(file)));
+        return true;
+    }
+
+    /**
+     * Bitmapを指定のパスにバックグラウンドで保存する<br>
+     * bitmap は保存後に破棄するので、呼び出し後に使ってはいけない。
+     * 
+     * @param context
+     * @param bitmap
+     * @param filePath
+     * @param listener 保存が終わったときにメインスレッドで呼ばれる (null 可)
+     * @return 保存待ちが一杯で保存しない場合は false
+     * @see ImageWriter
+     */
+    public static boolean saveBitmapAsync(Context context, Bitmap bitmap, String filePath, OnImageWrittenListener listener){
+        return MediaUtils.getImageWriter(context).write(bitmap, filePath, listener);
+    }
+
+    /**
+     * 画像をバックグラウンドで保存するキューを取得する
+     * 
+     * @param context
+     * @return writer
+     */
+    public static synchronized ImageWriter getImageWriter(Context context){
+        if(sImageWriter == null){
+            sImageWriter = new ImageWriter(context);
+        }
+        return sImageWriter;
+    }
+
     public static void saveBitmapInMediaStore(Context context, Bitmap bitmap, String filePath, int orientation){
         File file = new File(filePath);
         long date = System.currentTimeMillis();
@@ -230,6 +311,82 @@ public class MediaUtils {
         MediaStore.Images.Media.insertImage(contentResolver, bitmap, file.getName(), null);
     }
 
+    /**
+     * 保存済みの画像ファイルをまとめて MediaStore に登録する<br>
+     * 向きは Exif から取得する。
+     * 
+     * @param context
+     * @param filePaths
+     * @return 登録した数
+     * @see #insertImagesInMediaStore(Context, List, int[])
+     */
+    public static int insertImagesInMediaStore(Context context, List<String> filePaths){
+        int[] orientations = new int[filePaths.size()];
+        for(int i = 0; i < orientations.length; i++){
+            orientations[i] = BitmapUtils.getImageOrientation(filePaths.get(i));
+        }
+        return MediaUtils.insertImagesInMediaStore(context, filePaths, orientations);
+    }
+
+    /**
+     * 保存済みの画像ファイルをまとめて MediaStore に登録する<br>
+     * 1ファイルずつ insert せずに bulkInsert で登録する。画像の再圧縮はしない。
+     * 
+     * @param context
+     * @param filePaths
+     * @param orientations filePaths と同じ順の時計回りの回転角
+     * @return 登録した数
+     */
+    public static int insertImagesInMediaStore(Context context, List<String> filePaths, int[] orientations){
+        if(filePaths.size() != orientations.length){
+            throw new IllegalArgumentException("filePaths.size() != orientations.length: " + filePaths.size() + ", " + orientations.length);
+        }
+        ContentResolver contentResolver = context.getContentResolver();
+        long now = System.currentTimeMillis();
+        List<ContentValues> values = new ArrayList<ContentValues>(Math.min(filePaths.size(), BULK_INSERT_SIZE));
+        int inserted = 0;
+        for(int i = 0; i < filePaths.size(); i++){
+            File file = new File(filePaths.get(i));
+            if(!file.isFile()){
+                LogUtils.w("Not found: " + file);
+                continue;
+            }
+            values.add(MediaUtils.createImageContentValues(file, orientations[i], now));
+            if(values.size() == BULK_INSERT_SIZE){
+                inserted += contentResolver.bulkInsert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values.toArray(new ContentValues[values.size()]));
+                values.clear();
+            }
+        }
+        if(!values.isEmpty()){
+            inserted += contentResolver.bulkInsert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values.toArray(new ContentValues[values.size()]));
+        }
+        return inserted;
+    }
+
+    /**
+     * MediaStore に登録する画像の ContentValues を生成する
+     * 
+     * @param file
+     * @param orientation
+     * @param now 登録日時 (ミリ秒)
+     * @return contentValues
+     */
+    private static ContentValues createImageContentValues(File file, int orientation, long now){
+        long modified = file.lastModified();
+        ContentValues contentValues = new ContentValues();
+        contentValues.put(MediaColumns.MIME_TYPE, MediaUtils.getMimeType(file));
+        contentValues.put(MediaColumns.DATA, file.getAbsolutePath());
+        contentValues.put(MediaColumns.SIZE, file.length());
+        contentValues.put(MediaColumns.TITLE, FileNameUtils.getBaseName(file.getName()));
+        contentValues.put(MediaColumns.DISPLAY_NAME, file.getName());
+        contentValues.put(ImageColumns.ORIENTATION, orientation);
+        // DATE_ADDED と DATE_MODIFIED は秒
+        contentValues.put(MediaColumns.DATE_ADDED, now / 1000);
+        contentValues.put(MediaColumns.DATE_MODIFIED, modified / 1000);
+        contentValues.put(ImageColumns.DATE_TAKEN, modified);
+        return contentValues;
+    }
+
     public static boolean saveBitmap(Context context, byte[] data, String filePath){
         File file = new File(filePath);
         FileOutputStream fos = null;
@@ -15,15 +15,15 @@
  */
 package at.wada811.utils;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import android.content.Context;
 import android.content.res.AssetManager;
 import android.content.res.Resources.NotFoundException;
+import at.wada811.io.FileContentReader;
+import at.wada811.io.RecordReader;
 
 public class ResourceUtils {
 
@@ -57,40 +57,7 @@ public class ResourceUtils {
      * @return
      */
     public static String readFileString(Context context, String fileName){
-        FileInputStream fis = null;
-        BufferedReader br = null;
-        StringBuilder builder = new StringBuilder();
-        try{
-            fis = context.openFileInput(fileName);
-            br = new BufferedReader(new InputStreamReader(fis));
-            String line;
-            while((line = br.readLine()) != null){
-                builder.append(line);
-                builder.append("\n");
-            }
-        }catch(NotFoundException e){
-            e.printStackTrace();
-            return null;
-        }catch(IOException e){
-            e.printStackTrace();
-            return null;
-        }finally{
-            if(fis != null){
-                try{
-                    fis.close();
-                }catch(IOException e){
-                    e.printStackTrace();
-                }
-            }
-            if(br != null){
-                try{
-                    br.close();
-                }catch(IOException e){
-                    e.printStackTrace();
-                }
-            }
-        }
-        return builder.toString();
+        return FileUtils.readFileString(ResourceUtils.getFile(context, fileName));
     }
 
     /**
@@ -102,16 +69,9 @@ public class ResourceUtils {
      */
     public static String readRawString(Context context, int resId){
         InputStream is = null;
-        BufferedReader br = null;
-        StringBuilder builder = new StringBuilder();
         try{
             is = context.getResources().openRawResource(resId);
-            br = new BufferedReader(new InputStreamReader(is));
-            String line;
-            while((line = br.readLine()) != null){
-                builder.append(line);
-                builder.append("\n");
-            }
+            return FileContentReader.getDefault().readString(is);
         }catch(NotFoundException e){
             e.printStackTrace();
             return null;
@@ -126,15 +86,7 @@ public class ResourceUtils {
                     e.printStackTrace();
                 }
             }
-            if(br != null){
-                try{
-                    br.close();
-                }catch(IOException e){
-                    e.printStackTrace();
-                }
-            }
         }
-        return builder.toString();
     }
 
     /**
@@ -147,16 +99,9 @@ public class ResourceUtils {
     public static String readAssetsString(Context context, String fileName){
         AssetManager am = context.getAssets();
         InputStream is = null;
-        BufferedReader br = null;
-        StringBuilder builder = new StringBuilder();
         try{
             is = am.open(fileName);
-            br = new BufferedReader(new InputStreamReader(is));
-            String line;
-            while((line = br.readLine()) != null){
-                builder.append(line);
-                builder.append("\n");
-            }
+            return FileContentReader.getDefault().readString(is);
         }catch(IOException e){
             e.printStackTrace();
             return null;
@@ -168,15 +113,61 @@ public class ResourceUtils {
                     e.printStackTrace();
                 }
             }
-            if(br != null){
-                try{
-                    br.close();
-                }catch(IOException e){
-                    e.printStackTrace();
-                }
-            }
         }
-        return builder.toString();
+    }
+
+    /**
+     * res/raw フォルダのファイルを1行ずつ読み込むリーダーを開く<br>
+     * 使い終わったら close すること。
+     * 
+     * @param context
+     * @param resId
+     * @return reader
+     * @throws NotFoundException
+     */
+    public static RecordReader openRawLineReader(Context context, int resId){
+        return ResourceUtils.openRawRecordReader(context, resId, RecordReader.LINE_DELIMITER);
+    }
+
+    /**
+     * res/raw フォルダのファイルを区切り文字ごとに読み込むリーダーを開く<br>
+     * 使い終わったら close すること。
+     * 
+     * @param context
+     * @param resId
+     * @param delimiter
+     * @return reader
+     * @throws NotFoundException
+     */
+    public static RecordReader openRawRecordReader(Context context, int resId, char delimiter){
+        return new RecordReader(context.getResources().openRawResource(resId), Charset.defaultCharset(), delimiter);
+    }
+
+    /**
+     * assets フォルダのファイルを1行ずつ読み込むリーダーを開く<br>
+     * 使い終わったら close すること。
+     * 
+     * @param context
+     * @param fileName
+     * @return reader
+     * @throws IOException
+     */
+    public static RecordReader openAssetsLineReader(Context context, String fileName) throws IOException{
+        return ResourceUtils.openAssetsRecordReader(context, fileName, RecordReader.LINE_DELIMITER);
+    }
+
+    /**
+     * assets フォルダのファイルを区切り文字ごとに読み込むリーダーを開く<br>
+     * 使い終わったら close すること。
+     * 
+     * @param context
+     * @param fileName
+     * @param delimiter
+     * @return reader
+     * @throws IOException
+     */
+    public static RecordReader openAssetsRecordReader(Context context, String fileName, char delimiter) throws IOException{
+        return new RecordReader(context.getAssets().open(fileName), Charset.defaultCharset(), delimiter);
     }
 
 }
@@ -15,9 +15,22 @@
  */
 package at.wada811.utils;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import android.content.Context;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
@@ -25,9 +38,15 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.Signature;
 import at.wada811.android.library.BuildConfig;
 import at.wada811.android.library.R;
+import at.wada811.io.DigestCache;
+import at.wada811.io.FileDigester;
+import at.wada811.io.FileDigester.Algorithm;
 
 public class SecurityUtils {
 
+    /** {@link #digest(List, Algorithm, int, DigestCache)} で共有するスレッド (使われなくなったスレッドは終了する) */
+    private static final ExecutorService sDigestExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 30, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), ThreadUtils.newBackgroundThreadFactory(SecurityUtils.class.getSimpleName()));
+
     /**
      * 正しく署名されているかチェックする
      * 
@@ -115,4 +134,136 @@ public class SecurityUtils {
         return new ArrayList<String>();
     }
 
+    /**
+     * ファイルのハッシュ値を計算する
+     * 
+     * @param file
+     * @param algorithm
+     * @return 読み込めなかった場合は null
+     * @see FileDigester
+     */
+    public static byte[] digest(File file, Algorithm algorithm){
+        return SecurityUtils.digest(file, algorithm, null);
+    }
+
+    /**
+     * ファイルのハッシュ値を計算する
+     * 
+     * @param file
+     * @param algorithm
+     * @param cache null の場合はキャッシュしない
+     * @return 読み込めなかった場合は null
+     */
+    public static byte[] digest(File file, Algorithm algorithm, DigestCache cache){
+        FileDigester digester = FileDigester.getDefault(algorithm);
+        try{
+            return cache == null ? digester.digest(file) : cache.digest(digester, file);
+        }catch(IOException e){
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * ストリームの最後までのハッシュ値を計算する (ストリームは閉じない)
+     * 
+     * @param is
+     * @param algorithm
+     * @return 読み込めなかった場合は null
+     */
+    public static byte[] digest(InputStream is, Algorithm algorithm){
+        try{
+            return FileDigester.getDefault(algorithm).digest(is);
+        }catch(IOException e){
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * チャネルの現在位置から最後までのハッシュ値を計算する (チャネルは閉じない)
+     * 
+     * @param channel
+     * @param algorithm
+     * @return 読み込めなかった場合は null
+     */
+    public static byte[] digest(FileChannel channel, Algorithm algorithm){
+        try{
+            return FileDigester.getDefault(algorithm).digest(channel);
+        }catch(IOException e){
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * ファイルのハッシュ値を16進数の文字列で取得する
+     * 
+     * @param file
+     * @param algorithm
+     * @return 読み込めなかった場合は null
+     */
+    public static String digestHex(File file, Algorithm algorithm){
+        byte[] digest = SecurityUtils.digest(file, algorithm);
+        return digest == null ? null : FileDigester.toHex(digest);
+    }
+
+    /**
+     * 複数のファイルのハッシュ値を並列に計算する<br>
+     * 終わるまでブロックするので、メインスレッドから呼んではいけない。
+     * 
+     * @param files
+     * @param algorithm
+     * @param threadCount 同時に読み込むファイル数
+     * @param cache null の場合はキャッシュしない
+     * @return files の順のファイルとハッシュ値 (読み込めなかったファイルは含まない)
+     * @throws InterruptedException
+     */
+    public static Map<File, byte[]> digest(final List<File> files, final Algorithm algorithm, int threadCount, final DigestCache cache) throws InterruptedException{
+        Map<File, byte[]> digests = new LinkedHashMap<File, byte[]>();
+        if(threadCount <= 1 || files.size() <= 1){
+            for(File file : files){
+                byte[] digest = SecurityUtils.digest(file, algorithm, cache);
+                if(digest != null){
+                    digests.put(file, digest);
+                }
+            }
+            return digests;
+        }
+        // 呼び出しごとにスレッドを生成しないように共有のスレッドで threadCount 個ずつ処理する
+        final byte[][] results = new byte[files.size()][];
+        final AtomicInteger next = new AtomicInteger();
+        int workerCount = Math.min(threadCount, files.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>(workerCount);
+        try{
+            for(int i = 0; i < workerCount; i++){
+                futures.add(sDigestExecutor.submit(new Runnable(){
+                    @Override
+                    public void run(){
+                        int index;
+                        while((index = next.getAndIncrement()) < results.length){
+                            results[index] = SecurityUtils.digest(files.get(index), algorithm, cache);
+                        }
+                    }
+                }));
+            }
+            for(Future<?> future : futures){
+                try{
+                    future.get();
+                }catch(ExecutionException e){
+                    e.printStackTrace();
+                }
+            }
+        }finally{
+            // 割り込まれた場合は残りのファイルを処理しない
+            next.set(results.length);
+        }
+        for(int i = 0; i < results.length; i++){
+            if(results[i] != null){
+                digests.put(files.get(i), results[i]);
+            }
+        }
+        return digests;
+    }
+
 }
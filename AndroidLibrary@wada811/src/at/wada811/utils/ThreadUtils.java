@@ -16,6 +16,9 @@
 package at.wada811.utils;
 
 import android.os.Looper;
+import android.os.Process;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ThreadUtils {
 
@@ -30,4 +33,40 @@ public class ThreadUtils {
         return isMainThread(Thread.currentThread());
     }
 
+    /**
+     * バックグラウンドの優先度で動くデーモンスレッドを生成する ThreadFactory を生成する
+     *
+     * @param name スレッド名 (name#1, name#2 ... になる)
+     * @return factory
+     */
+    public static ThreadFactory newBackgroundThreadFactory(String name){
+        return ThreadUtils.newThreadFactory(name, Process.THREAD_PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * 指定した優先度で動くデーモンスレッドを生成する ThreadFactory を生成する
+     *
+     * @param name スレッド名 (name#1, name#2 ... になる)
+     * @param priority {@link Process#THREAD_PRIORITY_BACKGROUND} など
+     * @return factory
+     */
+    public static ThreadFactory newThreadFactory(final String name, final int priority){
+        return new ThreadFactory(){
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable){
+                Thread thread = new Thread(new Runnable(){
+                    @Override
+                    public void run(){
+                        Process.setThreadPriority(priority);
+                        runnable.run();
+                    }
+                }, name + "#" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
 }
@@ -94,6 +94,24 @@ public class ViewUtils {
         }
     }
 
+    /**
+     * ImageView の画像を解放する<br>
+     * recycle が true の場合は Bitmap を {@link BitmapUtils#recycle(Bitmap)} で破棄する。
+     * 
+     * @param imageView
+     * @param recycle 他から参照されていない Bitmap の場合のみ true にする
+     */
+    public static void releaseImageView(ImageView imageView, boolean recycle){
+        if(imageView == null){
+            return;
+        }
+        BitmapDrawable bitmapDrawable = (BitmapDrawable)(imageView.getDrawable());
+        ViewUtils.releaseImageView(imageView);
+        if(recycle && bitmapDrawable != null){
+            BitmapUtils.recycle(bitmapDrawable.getBitmap());
+        }
+    }
+
     /**
      * 画像の ColorFilter を設定する
      * 
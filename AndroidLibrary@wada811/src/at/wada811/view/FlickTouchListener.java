@@ -15,6 +15,7 @@
  */
 package at.wada811.view;
 
+import android.util.Log;
 import android.view.MotionEvent;
 import android.view.View;
 import at.wada811.utils.LogUtils;
@@ -59,11 +60,11 @@ public class FlickTouchListener implements View.OnTouchListener {
     @Override
     public boolean onTouch(View v, MotionEvent event){
         // タッチされている指の本数
-        LogUtils.v("touch_count = " + event.getPointerCount());
+        LogUtils.log(Log.VERBOSE, "touch_count = {}", event.getPointerCount());
 
         // タッチされている座標
-        LogUtils.v("X: " + Float.toString(event.getX()));
-        LogUtils.v("Y: " + Float.toString(event.getY()));
+        LogUtils.log(Log.VERBOSE, "X: {}", event.getX());
+        LogUtils.log(Log.VERBOSE, "Y: {}", event.getY());
 
         switch(event.getAction()){
             case MotionEvent.ACTION_DOWN: // タッチ
@@ -107,21 +108,21 @@ public class FlickTouchListener implements View.OnTouchListener {
         // 左上を原点とし、右下が正
         float moveX = mDownX - mUpX; // 正: 左, 負: 右
         float moveY = mDownY - mUpY; // 正: 上, 負: 下
-        LogUtils.d("moveX: " + moveX);
-        LogUtils.d("moveY: " + moveY);
+        LogUtils.log(Log.DEBUG, "moveX: {}", moveX);
+        LogUtils.log(Log.DEBUG, "moveY: {}", moveY);
         // 移動量のチェック
         float absMoveX = Math.abs(moveX);
         float absMoveY = Math.abs(moveY);
         if(absMoveX < MIN_DISTANCE && absMoveY < MIN_DISTANCE){
-            LogUtils.d("absMoveX < MIN_DISTANCE: " + absMoveX + " < " + MIN_DISTANCE);
-            LogUtils.d("absMoveY < MIN_DISTANCE: " + absMoveY + " < " + MIN_DISTANCE);
+            LogUtils.log(Log.DEBUG, "absMoveX < MIN_DISTANCE: {} < {}", absMoveX, MIN_DISTANCE);
+            LogUtils.log(Log.DEBUG, "absMoveY < MIN_DISTANCE: {} < {}", absMoveY, MIN_DISTANCE);
             return false;
         }
         // 移動時間のチェック
         long moveTime = mUpTime - mDownTime;
-        LogUtils.d("moveTime: " + moveTime);
+        LogUtils.log(Log.DEBUG, "moveTime: {}", moveTime);
         if(moveTime > MAX_MOVE_TIME){
-            LogUtils.d("moveTime > MAX_MOVE_TIME: " + moveTime + " > " + MAX_MOVE_TIME);
+            LogUtils.log(Log.DEBUG, "moveTime > MAX_MOVE_TIME: {} > {}", moveTime, MAX_MOVE_TIME);
             return false;
         }
         // 方向の決定
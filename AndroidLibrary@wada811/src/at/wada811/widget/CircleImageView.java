@@ -22,6 +22,7 @@ import android.graphics.Canvas;
 import android.graphics.Path;
 import android.graphics.Path.Direction;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.widget.ImageView;
 import at.wada811.android.library.R;
 import at.wada811.utils.LogUtils;
@@ -84,12 +85,12 @@ public class CircleImageView extends ImageView {
         int measuredWidth = MeasureSpec.getSize(widthMeasureSpec);
         int measuredHeight = MeasureSpec.getSize(heightMeasureSpec);
         if(mR * mR * 4 > measuredWidth * measuredWidth + measuredHeight * measuredHeight){
-            LogUtils.v("mR * mR * 4 > measuredWidth * measuredWidth + measuredHeight * measuredHeight: " + mR * mR * 4 + " > " + measuredWidth * measuredWidth + measuredHeight * measuredHeight);
+            LogUtils.log(Log.VERBOSE, "mR * mR * 4 > measuredWidth * measuredWidth + measuredHeight * measuredHeight: {} > {}", mR * mR * 4, measuredWidth * measuredWidth + measuredHeight * measuredHeight);
             mIsClip = false;
         }
-        LogUtils.v("measuredWidth: " + measuredWidth);
-        LogUtils.v("measuredHeight: " + measuredHeight);
-        LogUtils.v("mR: " + mR);
+        LogUtils.log(Log.VERBOSE, "measuredWidth: {}", measuredWidth);
+        LogUtils.log(Log.VERBOSE, "measuredHeight: {}", measuredHeight);
+        LogUtils.log(Log.VERBOSE, "mR: {}", mR);
         setMeasuredDimension(measuredWidth, measuredHeight);
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
     }
@@ -97,19 +98,19 @@ public class CircleImageView extends ImageView {
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom){
         super.onLayout(changed, left, top, right, bottom);
-        LogUtils.v("changed: " + changed);
-        LogUtils.v("left: " + left);
-        LogUtils.v("top: " + top);
-        LogUtils.v("right: " + right);
-        LogUtils.v("bottom: " + bottom);
-        LogUtils.v("width: " + (right - left));
-        LogUtils.v("height: " + (bottom - top));
+        LogUtils.log(Log.VERBOSE, "changed: {}", changed);
+        LogUtils.log(Log.VERBOSE, "left: {}", left);
+        LogUtils.log(Log.VERBOSE, "top: {}", top);
+        LogUtils.log(Log.VERBOSE, "right: {}", right);
+        LogUtils.log(Log.VERBOSE, "bottom: {}", bottom);
+        LogUtils.log(Log.VERBOSE, "width: {}", right - left);
+        LogUtils.log(Log.VERBOSE, "height: {}", bottom - top);
         if(changed && mR == -1){
             LogUtils.v();
             int width = right - left;
             int height = bottom - top;
             mR = Math.min(width, height) / 2;
-            LogUtils.v("mR: " + mR);
+            LogUtils.log(Log.VERBOSE, "mR: {}", mR);
         }
     }
 
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.os;
+
+/**
+ * PC の JVM でベンチマークを動かすための android.os.Process の代替<br>
+ * スレッドの優先度は変更しない。
+ */
+public class Process {
+
+    public static final int THREAD_PRIORITY_DEFAULT = 0;
+    public static final int THREAD_PRIORITY_BACKGROUND = 10;
+
+    public static final void setThreadPriority(int priority){
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.benchmarks;
+
+import at.wada811.graphics.YuvDecoder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link YuvDecoder} と BitmapUtils.decodeYUV420SP の1フレームあたりの変換時間を比べる<br>
+ * single は帯に分けずにテーブルだけを使った場合、parallel は CPU のコア数のスレッドで帯に分けた場合。
+ *
+ * <pre>
+ * $ mvn -B package
+ * $ java -jar target/benchmarks.jar YuvDecoderBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class YuvDecoderBenchmark {
+
+    @Param({ "640x480", "1280x720", "1920x1080" })
+    public String size;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mYuv;
+    private int[] mRgb;
+    private YuvDecoder mSingleDecoder;
+    private YuvDecoder mParallelDecoder;
+
+    @Setup(Level.Trial)
+    public void setUp(){
+        String[] values = size.split("x");
+        mWidth = Integer.parseInt(values[0]);
+        mHeight = Integer.parseInt(values[1]);
+        mYuv = new byte[mWidth * mHeight * 3 / 2];
+        new Random(811).nextBytes(mYuv);
+        mRgb = new int[mWidth * mHeight];
+        mSingleDecoder = new YuvDecoder(1);
+        mParallelDecoder = new YuvDecoder();
+
+        // 速さを比べる前に結果が一致することを確かめる
+        int[] expected = new int[mWidth * mHeight];
+        YuvDecoderBenchmark.decodeYUV420SP(expected, mYuv, mWidth, mHeight);
+        mParallelDecoder.decode(mRgb, mYuv, mWidth, mHeight);
+        if(!Arrays.equals(expected, mRgb)){
+            throw new IllegalStateException("YuvDecoder does not match BitmapUtils.decodeYUV420SP at " + size);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        mSingleDecoder.shutdown();
+        mParallelDecoder.shutdown();
+    }
+
+    @Benchmark
+    public int[] baseline(){
+        YuvDecoderBenchmark.decodeYUV420SP(mRgb, mYuv, mWidth, mHeight);
+        return mRgb;
+    }
+
+    @Benchmark
+    public int[] single(){
+        mSingleDecoder.decode(mRgb, mYuv, mWidth, mHeight);
+        return mRgb;
+    }
+
+    @Benchmark
+    public int[] parallel(){
+        mParallelDecoder.decode(mRgb, mYuv, mWidth, mHeight);
+        return mRgb;
+    }
+
+    /**
+     * BitmapUtils.decodeYUV420SP と同じ処理<br>
+     * BitmapUtils は Android のクラスに依存して JVM で読み込めないので写している。
+     */
+    static void decodeYUV420SP(int[] rgb, byte[] yuv420sp, int width, int height){
+        final int frameSize = width * height;
+
+        for(int j = 0, yp = 0; j < height; j++){
+            int uvp = frameSize + (j >> 1) * width, u = 0, v = 0;
+            for(int i = 0; i < width; i++, yp++){
+                int y = (0xff & (yuv420sp[yp])) - 16;
+                if(y < 0){
+                    y = 0;
+                }
+                if((i & 1) == 0){
+                    v = (0xff & yuv420sp[uvp++]) - 128;
+                    u = (0xff & yuv420sp[uvp++]) - 128;
+                }
+
+                int y1192 = 1192 * y;
+                int r = (y1192 + 1634 * v);
+                int g = (y1192 - 833 * v - 400 * u);
+                int b = (y1192 + 2066 * u);
+
+                if(r < 0){
+                    r = 0;
+                }else if(r > 262143){
+                    r = 262143;
+                }
+                if(g < 0){
+                    g = 0;
+                }else if(g > 262143){
+                    g = 262143;
+                }
+                if(b < 0){
+                    b = 0;
+                }else if(b > 262143){
+                    b = 262143;
+                }
+
+                rgb[yp] = 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+            }
+        }
+    }
+
+}
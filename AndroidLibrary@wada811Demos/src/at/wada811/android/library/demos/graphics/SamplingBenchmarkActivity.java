@@ -0,0 +1,269 @@
+/*
+ * Copyright 2013 wada811<at.wada811@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package at.wada811.android.library.demos.graphics;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Bundle;
+import android.os.Debug;
+import android.support.v4.app.FragmentActivity;
+import android.view.View;
+import android.view.View.OnClickListener;
+import android.widget.Button;
+import android.widget.TextView;
+import at.wada811.android.library.demos.R;
+import at.wada811.graphics.BitmapCache;
+import at.wada811.graphics.BitmapPool;
+import at.wada811.graphics.SamplingPlan;
+import at.wada811.utils.BitmapUtils;
+import at.wada811.utils.LogUtils;
+
+/**
+ * 12MP の JPEG をサイズを指定してデコードした時のピークのヒープ使用量を計測する<br>
+ * calculateInSampleSize だけで縮小する従来の方法と {@link BitmapUtils#createBitmapFromFile(String, int, int)} を比較する。
+ */
+public class SamplingBenchmarkActivity extends FragmentActivity implements OnClickListener {
+
+    final SamplingBenchmarkActivity self = this;
+    /** 計測に使う画像のサイズ(12MP) */
+    public static final int SOURCE_WIDTH = 4000;
+    public static final int SOURCE_HEIGHT = 3000;
+    /** デコードするサイズ */
+    public static final int[][] SIZES = { { 400, 300 }, { 1280, 720 }, { 1080, 1920 }, { 2000, 1500 } };
+    /** 1サイズあたりの計測回数 */
+    public static final int N = 5;
+    /** ピークを取る間隔(ms) */
+    public static final long SAMPLING_INTERVAL = 1;
+
+    private TextView mTextView;
+    private Thread mThread;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState){
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_sampling_benchmark);
+
+        ((Button)findViewById(R.id.button1)).setText("SamplingBenchmark");
+        ((Button)findViewById(R.id.button1)).setOnClickListener(this);
+        mTextView = (TextView)findViewById(R.id.textView1);
+    }
+
+    @Override
+    public void onClick(View v){
+        LogUtils.d();
+        switch(v.getId()){
+            case R.id.button1:
+                if(mThread != null && mThread.isAlive()){
+                    return;
+                }
+                mTextView.setText(null);
+                mThread = new Thread(new Runnable(){
+                    @Override
+                    public void run(){
+                        samplingBenchmark();
+                    }
+                }, SamplingBenchmarkActivity.class.getSimpleName());
+                mThread.start();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void samplingBenchmark(){
+        File file = new File(getCacheDir(), "sampling_benchmark.jpg");
+        if(!file.exists() && !createSourceFile(file)){
+            print("failed to create " + file);
+            return;
+        }
+        // キャッシュのヒットと inBitmap の再利用で計測がずれないようにする
+        BitmapCache cache = BitmapUtils.getBitmapCache();
+        BitmapPool pool = BitmapUtils.getBitmapPool();
+        BitmapUtils.setBitmapCache(null);
+        BitmapUtils.setBitmapPool(null);
+        try{
+            print("source: " + SOURCE_WIDTH + "x" + SOURCE_HEIGHT + " " + file.length() + " bytes, maxMemory: " + Runtime.getRuntime().maxMemory());
+            for(int[] size : SIZES){
+                final int width = size[0];
+                final int height = size[1];
+                final String path = file.getAbsolutePath();
+                BitmapFactory.Options bounds = new BitmapFactory.Options();
+                bounds.inJustDecodeBounds = true;
+                BitmapFactory.decodeFile(path, bounds);
+                SamplingPlan plan = BitmapUtils.createSamplingPlan(bounds, width, height);
+                print(width + "x" + height + " plan: " + plan);
+                measure("  calculateInSampleSize", new Decoder(){
+                    @Override
+                    public Bitmap decode(){
+                        BitmapFactory.Options options = new BitmapFactory.Options();
+                        options.inJustDecodeBounds = true;
+                        BitmapFactory.decodeFile(path, options);
+                        options.inSampleSize = BitmapUtils.calculateInSampleSize(options, width, height);
+                        options.inJustDecodeBounds = false;
+                        return BitmapFactory.decodeFile(path, options);
+                    }
+                });
+                measure("  createBitmapFromFile", new Decoder(){
+                    @Override
+                    public Bitmap decode(){
+                        return BitmapUtils.createBitmapFromFile(path, width, height);
+                    }
+                });
+            }
+            print("done");
+        }finally{
+            BitmapUtils.setBitmapCache(cache);
+            BitmapUtils.setBitmapPool(pool);
+        }
+    }
+
+    private interface Decoder {
+        Bitmap decode();
+    }
+
+    /**
+     * デコード中のピークのヒープ使用量(Java + native)を計測する
+     */
+    private void measure(String name, Decoder decoder){
+        long maxPeak = 0;
+        long totalPeak = 0;
+        long totalTime = 0;
+        String result = null;
+        for(int i = 0; i < N; i++){
+            gc();
+            final long baseline = usedMemory();
+            final AtomicLong peak = new AtomicLong(baseline);
+            final AtomicBoolean isRunning = new AtomicBoolean(true);
+            Thread sampler = new Thread(new Runnable(){
+                @Override
+                public void run(){
+                    while(isRunning.get()){
+                        long used = usedMemory();
+                        if(used > peak.get()){
+                            peak.set(used);
+                        }
+                        try{
+                            Thread.sleep(SAMPLING_INTERVAL);
+                        }catch(InterruptedException e){
+                            return;
+                        }
+                    }
+                }
+            });
+            sampler.start();
+            long start = System.nanoTime();
+            Bitmap bitmap = null;
+            try{
+                bitmap = decoder.decode();
+            }catch(OutOfMemoryError e){
+                result = "OutOfMemoryError";
+            }
+            long time = System.nanoTime() - start;
+            isRunning.set(false);
+            try{
+                sampler.join();
+            }catch(InterruptedException e){
+                Thread.currentThread().interrupt();
+                return;
+            }
+            // サンプリングの間に解放されていてもデコード結果は残っているので最後にもう一度取る
+            long used = Math.max(peak.get(), usedMemory()) - baseline;
+            maxPeak = Math.max(maxPeak, used);
+            totalPeak += used;
+            totalTime += time;
+            if(bitmap != null){
+                result = bitmap.getWidth() + "x" + bitmap.getHeight() + " " + bitmap.getRowBytes() * bitmap.getHeight() + " bytes";
+                bitmap.recycle();
+            }
+        }
+        print(name + ": " + result + ", peak avg " + totalPeak / N / 1024 + " KB, max " + maxPeak / 1024 + " KB, " + totalTime / N / 1000000 + " ms");
+    }
+
+    private static long usedMemory(){
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory() + Debug.getNativeHeapAllocatedSize();
+    }
+
+    private static void gc(){
+        System.gc();
+        try{
+            Thread.sleep(200);
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        System.gc();
+    }
+
+    private boolean createSourceFile(File file){
+        Bitmap bitmap = null;
+        OutputStream os = null;
+        boolean isCreated = false;
+        try{
+            bitmap = Bitmap.createBitmap(SOURCE_WIDTH, SOURCE_HEIGHT, Bitmap.Config.RGB_565);
+            Canvas canvas = new Canvas(bitmap);
+            Paint paint = new Paint();
+            for(int y = 0; y < SOURCE_HEIGHT; y += 100){
+                for(int x = 0; x < SOURCE_WIDTH; x += 100){
+                    paint.setColor(Color.rgb(x * 255 / SOURCE_WIDTH, y * 255 / SOURCE_HEIGHT, (x + y) % 256));
+                    canvas.drawRect(x, y, x + 100, y + 100, paint);
+                }
+            }
+            os = new FileOutputStream(file);
+            isCreated = bitmap.compress(Bitmap.CompressFormat.JPEG, 90, os);
+            return isCreated;
+        }catch(OutOfMemoryError e){
+            LogUtils.e(e);
+            return false;
+        }catch(IOException e){
+            LogUtils.e(e);
+            return false;
+        }finally{
+            if(bitmap != null){
+                bitmap.recycle();
+            }
+            if(os != null){
+                try{
+                    os.close();
+                }catch(IOException e){
+                    e.printStackTrace();
+                }
+            }
+            if(!isCreated){
+                file.delete();
+            }
+        }
+    }
+
+    private void print(final String message){
+        LogUtils.i(message);
+        runOnUiThread(new Runnable(){
+            @Override
+            public void run(){
+                mTextView.append(message + "\n");
+            }
+        });
+    }
+
+}